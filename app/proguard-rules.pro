@@ -183,14 +183,3 @@
     # Application classes that will be serialized/deserialized over Gson
     -keep class com.google.gson.examples.android.model.** { *; }
 
-    # eventbus
-    -keepattributes *Annotation*
-    -keepclassmembers class ** {
-        @org.greenrobot.eventbus.Subscribe <methods>;
-    }
-    -keep enum org.greenrobot.eventbus.ThreadMode { *; }
-
-    # Only required if you use AsyncExecutor
-#    -keepclassmembers class * extends org.greenrobot.eventbus.util.ThrowableFailureEvent {
-#        <init>(java.lang.Throwable);
-#    }
\ No newline at end of file
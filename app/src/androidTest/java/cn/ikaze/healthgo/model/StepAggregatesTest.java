@@ -0,0 +1,94 @@
+package cn.ikaze.healthgo.model;
+
+import android.test.AndroidTestCase;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import io.realm.Realm;
+import io.realm.RealmConfiguration;
+
+
+/**
+ * Writes days through StepTransaction and the service's cached StepStore,
+ * going down as well as up, and compares the aggregates kept along the way
+ * with ones rebuilt from scratch.
+ */
+public class StepAggregatesTest extends AndroidTestCase {
+
+    private RealmConfiguration config;
+    private RealmConfiguration defaultConfig;
+    private Realm realm;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        Realm.init(getContext());
+        config = new RealmConfiguration.Builder()
+                .name("aggregates_test.realm")
+                .schemaVersion(StepMigration.SCHEMA_VERSION)
+                .migration(new StepMigration())
+                .build();
+        Realm.deleteRealm(config);
+        // StepStore opens the default Realm
+        defaultConfig = Realm.getDefaultConfiguration();
+        Realm.setDefaultConfiguration(config);
+        realm = Realm.getInstance(config);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        realm.close();
+        Realm.deleteRealm(config);
+        if (defaultConfig != null)
+            Realm.setDefaultConfiguration(defaultConfig);
+        super.tearDown();
+    }
+
+    public void testIncrementalMatchesRebuild() throws Exception {
+        Random random = new Random(11);
+        Map<Integer, Long> days = new HashMap<>();
+        int first = StepPeriods.firstDay(StepPeriods.YEAR, 2025);
+        StepStore store = new StepStore(true);
+        for (int write = 0; write < 3000; ) {
+            int day = first + random.nextInt(400);
+            // Several writes in a row to a day reuse the store's cached aggregates
+            for (int again = random.nextInt(5); again >= 0; again--, write++) {
+                Long before = days.get(day);
+                long after = before == null ? random.nextInt(500) : random.nextInt(10) == 0
+                        ? Math.max(0, before - random.nextInt(3000)) : before + random.nextInt(800);
+                days.put(day, after);
+                if (random.nextBoolean())
+                    store.write(day, after, null, 0, 0);
+                else
+                    realm.executeTransaction(new StepTransaction(day, after));
+            }
+        }
+        store.close();
+
+        Map<Long, StepTotals> incremental = snapshot();
+        realm.beginTransaction();
+        StepAggregates.rebuild(realm);
+        realm.commitTransaction();
+        assertEquals(snapshot(), incremental);
+
+        Map<Long, StepTotals> expected = new HashMap<>();
+        for (Map.Entry<Integer, Long> entry : days.entrySet())
+            StepTotals.accumulate(expected, entry.getKey(), entry.getValue());
+        assertEquals(expected, incremental);
+
+        int day = first + 45;
+        StepAggregate month = StepAggregates.get(realm, StepPeriods.MONTH, day);
+        assertNotNull(month);
+        assertEquals(expected.get(month.getKey()), month.getTotals());
+        assertNull(StepAggregates.get(realm, StepPeriods.YEAR, first - 1));
+    }
+
+    private Map<Long, StepTotals> snapshot() {
+        Map<Long, StepTotals> totals = new HashMap<>();
+        for (StepAggregate aggregate : realm.where(StepAggregate.class).findAll())
+            totals.put(aggregate.getKey(), aggregate.getTotals());
+        return totals;
+    }
+}
@@ -0,0 +1,143 @@
+package cn.ikaze.healthgo.model;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.Calendar;
+import java.util.Date;
+
+import cn.ikaze.healthgo.DateTimeHelper;
+import io.realm.DynamicRealm;
+import io.realm.DynamicRealmObject;
+import io.realm.FieldAttribute;
+import io.realm.Realm;
+import io.realm.RealmConfiguration;
+import io.realm.RealmSchema;
+
+
+/**
+ * Migrates a synthetic version 1 step_db holding several years of days,
+ * including days written twice from different time zones.
+ */
+public class StepMigrationTest extends AndroidTestCase {
+
+    private static final String NAME = "migration_test.realm";
+    private static final int DAYS = 5 * 365;
+    private static final long HOUR = 3600000L;
+
+    private RealmConfiguration v1;
+    private RealmConfiguration current;
+    private int firstDay;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        Realm.init(getContext());
+        v1 = new RealmConfiguration.Builder().name(NAME).schemaVersion(1).build();
+        current = new RealmConfiguration.Builder()
+                .name(NAME)
+                .schemaVersion(StepMigration.SCHEMA_VERSION)
+                .migration(new StepMigration())
+                .build();
+        Realm.deleteRealm(v1);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Realm.deleteRealm(v1);
+        super.tearDown();
+    }
+
+    public void testMigratesYearsOfDays() throws Exception {
+        writeVersion1();
+
+        long start = System.nanoTime();
+        Realm realm = Realm.getInstance(current);
+        long ms = (System.nanoTime() - start) / 1000000;
+        Log.d("realm", "migrated " + DAYS + " days in " + ms + " ms");
+        try {
+            assertEquals(DAYS, realm.where(StepModel.class).count());
+            assertEquals(DAYS, realm.where(StepSeriesModel.class).count());
+            for (int i = 0; i < DAYS; i++) {
+                StepModel model = realm.where(StepModel.class).equalTo("day", firstDay + i).findFirst();
+                assertNotNull("day " + i, model);
+                assertEquals("day " + i, expected(i), model.getNumSteps());
+            }
+
+            long[] history = StepHistory.query(realm, firstDay + DAYS - 1, DAYS);
+            for (int i = 0; i < DAYS; i++)
+                assertEquals(expected(i), history[i]);
+
+            StepAggregate year = StepAggregates.get(realm, StepPeriods.YEAR, firstDay);
+            assertEquals(365, year.getDays());
+            long total = 0, max = 0;
+            for (int i = 0; i < 365; i++) {
+                total += expected(i);
+                max = Math.max(max, expected(i));
+            }
+            assertEquals(total, year.getTotalSteps());
+            assertEquals(max, year.getMaxSteps());
+
+            int[] buckets = StepSeriesStore.query(realm, firstDay, 2, 60);
+            assertEquals(1, buckets[8]);
+            assertEquals(2, buckets[24 + 8]);
+            // Migrated buckets take every journal record on replay
+            assertEquals(0, StepSeriesStore.lastJournalSeq(realm));
+            assertTrue("migration took " + ms + " ms", ms < 5000);
+        } finally {
+            realm.close();
+        }
+    }
+
+    /**
+     * Builds the version 1 schema by hand: StepModel keyed by an indexed
+     * local midnight and StepSeriesModel keyed by the same in millis.
+     */
+    private void writeVersion1() {
+        Calendar c = Calendar.getInstance();
+        c.clear();
+        c.set(2021, Calendar.JANUARY, 1);
+        firstDay = DateTimeHelper.toEpochDay(c.getTimeInMillis());
+
+        DynamicRealm realm = DynamicRealm.getInstance(v1);
+        realm.beginTransaction();
+        RealmSchema schema = realm.getSchema();
+        schema.create("StepModel")
+                .addField("date", Date.class, FieldAttribute.INDEXED)
+                .addField("numSteps", long.class);
+        schema.create("StepSeriesModel")
+                .addField("day", long.class, FieldAttribute.PRIMARY_KEY)
+                .addField("bucketMinutes", int.class)
+                .addField("buckets", byte[].class);
+
+        int[] hours = new int[24];
+        for (int i = 0; i < DAYS; i++) {
+            long midnight = c.getTimeInMillis();
+            DynamicRealmObject day = realm.createObject("StepModel");
+            day.setDate("date", new Date(midnight));
+            day.setLong("numSteps", base(i));
+            if (i % 20 == 0) {
+                // The same day again, saved while eight hours further east
+                DynamicRealmObject travel = realm.createObject("StepModel");
+                travel.setDate("date", new Date(midnight - 8 * HOUR));
+                travel.setLong("numSteps", base(i) + (i % 40 == 0 ? 500 : -500));
+            }
+
+            hours[8] = i + 1;
+            DynamicRealmObject series = realm.createObject("StepSeriesModel", midnight);
+            series.setInt("bucketMinutes", 60);
+            series.setBlob("buckets", BucketCodec.encode(hours, hours.length));
+            c.add(Calendar.DAY_OF_MONTH, 1);
+        }
+        realm.commitTransaction();
+        realm.close();
+    }
+
+    private static long base(int i) {
+        return 1000 + i * 7L;
+    }
+
+    private static long expected(int i) {
+        return i % 40 == 0 ? base(i) + 500 : base(i);
+    }
+}
@@ -0,0 +1,89 @@
+package cn.ikaze.healthgo;
+
+
+/**
+ * The last N days of step counts shown in the history chart, ending on the
+ * current day. Moving to a later day evicts the oldest days and appends empty
+ * ones in place, so the window never reallocates.
+ */
+public class ChartWindow {
+
+    private final long[] steps;
+    // Slot of the first (oldest) day
+    private int head;
+    private int lastDay;
+
+    public ChartWindow(int days) {
+        steps = new long[days];
+    }
+
+    public int size() {
+        return steps.length;
+    }
+
+    /**
+     * @param data one count per day, oldest first, ending on lastDay
+     */
+    public void load(int lastDay, long[] data) {
+        this.lastDay = lastDay;
+        head = 0;
+        int missing = steps.length - data.length;
+        for (int i = 0; i < steps.length; i++)
+            steps[i] = i >= missing ? data[i - missing] : 0;
+    }
+
+    public int getFirstDay() {
+        return lastDay - steps.length + 1;
+    }
+
+    public int getLastDay() {
+        return lastDay;
+    }
+
+    /**
+     * @return the count of the i-th day shown, oldest first
+     */
+    public long getAt(int i) {
+        return steps[(head + i) % steps.length];
+    }
+
+    /**
+     * @return the count of an epoch day, or -1 if it is outside the window
+     */
+    public long get(int day) {
+        int i = day - getFirstDay();
+        return i < 0 || i >= steps.length ? -1 : getAt(i);
+    }
+
+    /**
+     * Moves the window forward so it ends on day. Each day appended takes the
+     * slot of the oldest one.
+     *
+     * @return how many days were appended, at most the window size
+     */
+    public int advanceTo(int day) {
+        if (day <= lastDay)
+            return 0;
+        int appended = (int) Math.min((long) day - lastDay, steps.length);
+        for (int i = 0; i < appended; i++) {
+            steps[head] = 0;
+            head = (head + 1) % steps.length;
+        }
+        lastDay = day;
+        return appended;
+    }
+
+    /**
+     * @return true if the day is in the window and its count changed
+     */
+    public boolean set(int day, long count) {
+        int i = day - getFirstDay();
+        if (i < 0 || i >= steps.length)
+            return false;
+        int slot = (head + i) % steps.length;
+        if (steps[slot] == count)
+            return false;
+        steps[slot] = count;
+        return true;
+    }
+}
@@ -2,10 +2,13 @@ package cn.ikaze.healthgo;
 
 import java.util.Calendar;
 import java.util.Date;
+import java.util.TimeZone;
 
 
 public class DateTimeHelper {
 
+    private static final long DAY_MILLIS = 86400000L;
+
     public static Date getToday()
     {
         Date d=new Date();
@@ -22,27 +25,83 @@ public class DateTimeHelper {
     }
 
     public static Date[] get6days()
+    {
+        return getDays(6);
+    }
+
+    public static String[] get6days(boolean returnString)
+    {
+        return getDays(6, returnString);
+    }
+
+    /**
+     * The last n days, ending today
+     */
+    public static Date[] getDays(int n)
     {
         Date d=getToday();
-        Date [] days=new Date[6];
-        for (int i=0;i<6;i++)
+        Date [] days=new Date[n];
+        for (int i=0;i<n;i++)
         {
-            days[i]=add(d,i-5);
+            days[i]=add(d,i-n+1);
         }
         return days;
     }
 
-    public static String[] get6days(boolean returnString)
+    public static String[] getDays(int n, boolean returnString)
     {
         Date d=getToday();
 
 
-        String [] days=new String[6];
-        for (int i=0;i<6;i++)
+        String [] days=new String[n];
+        for (int i=0;i<n;i++)
         {
-            Date t=add(d,i-5);
+            Date t=add(d,i-n+1);
             days[i]=t.getMonth()+1+"."+t.getDate();
         }
         return days;
     }
+
+    /**
+     * The local calendar day containing an instant, as days since 1970-01-01.
+     * Step records are keyed by this number.
+     */
+    public static int toEpochDay(long millis)
+    {
+        return toEpochDay(millis, TimeZone.getDefault());
+    }
+
+    public static int toEpochDay(long millis, TimeZone zone)
+    {
+        long local = millis + zone.getOffset(millis);
+        return (int) (local >= 0 ? local / DAY_MILLIS : (local + 1) / DAY_MILLIS - 1);
+    }
+
+    public static int getEpochDay()
+    {
+        return toEpochDay(System.currentTimeMillis());
+    }
+
+    /**
+     * Chart label of an epoch day, as month.day like getDays
+     */
+    public static String getDayLabel(int epochDay)
+    {
+        Calendar utc = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        utc.setTimeInMillis(epochDay * DAY_MILLIS);
+        return utc.get(Calendar.MONTH) + 1 + "." + utc.get(Calendar.DAY_OF_MONTH);
+    }
+
+    /**
+     * Local midnight of an epoch day
+     */
+    public static Date fromEpochDay(int epochDay)
+    {
+        Calendar utc = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        utc.setTimeInMillis(epochDay * DAY_MILLIS);
+        Calendar c = Calendar.getInstance();
+        c.clear();
+        c.set(utc.get(Calendar.YEAR), utc.get(Calendar.MONTH), utc.get(Calendar.DAY_OF_MONTH));
+        return c.getTime();
+    }
 }
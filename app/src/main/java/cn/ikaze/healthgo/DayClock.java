@@ -0,0 +1,72 @@
+package cn.ikaze.healthgo;
+
+import java.util.Calendar;
+
+
+/**
+ * Tracks the current local day for the step path. The next midnight is
+ * worked out once per day, so checking for a new day is one comparison of
+ * longs and allocates nothing.
+ * <p>
+ * The precomputed midnight goes stale when the clock or the time zone is
+ * changed; call {@link #reset(long)} from ACTION_TIME_CHANGED and
+ * ACTION_TIMEZONE_CHANGED.
+ */
+public class DayClock {
+
+    private long dayStart;
+    private long nextMidnight;
+    private int day = Integer.MIN_VALUE;
+
+    public DayClock() {
+        reset(System.currentTimeMillis());
+    }
+
+    /**
+     * @param now epoch millis
+     * @return true once now has reached the next local midnight
+     */
+    public boolean isNewDay(long now) {
+        return now >= nextMidnight;
+    }
+
+    /**
+     * Recomputes the day containing now, in the current default time zone.
+     * Daylight saving days come out 23 or 25 hours long.
+     *
+     * @return true if that is a different day from before
+     */
+    public boolean reset(long now) {
+        Calendar c = Calendar.getInstance();
+        c.setTimeInMillis(now);
+        c.set(Calendar.HOUR_OF_DAY, 0);
+        c.set(Calendar.MINUTE, 0);
+        c.set(Calendar.SECOND, 0);
+        c.set(Calendar.MILLISECOND, 0);
+        long start = c.getTimeInMillis();
+        c.add(Calendar.DAY_OF_MONTH, 1);
+        nextMidnight = c.getTimeInMillis();
+
+        boolean changed = day == Integer.MIN_VALUE || start != dayStart;
+        if (changed) {
+            dayStart = start;
+            day = DateTimeHelper.toEpochDay(start);
+        }
+        return changed;
+    }
+
+    /**
+     * @return the current day, see {@link DateTimeHelper#toEpochDay(long)}
+     */
+    public int getDay() {
+        return day;
+    }
+
+    public long getDayStart() {
+        return dayStart;
+    }
+
+    public long getNextMidnight() {
+        return nextMidnight;
+    }
+}
@@ -0,0 +1,143 @@
+package cn.ikaze.healthgo;
+
+import java.util.Arrays;
+
+
+/**
+ * Picks the points of a long series worth drawing: for every pixel column,
+ * the lowest and the highest value, so peaks survive however far the chart
+ * is zoomed out.
+ * <p>
+ * Columns are buckets of a power-of-two number of points aligned to the
+ * start of the series, so scrolling at one zoom level reuses the buckets
+ * already seen, and a zoom level is built from the finer one if that was
+ * seen before. Changing a value only drops the buckets that contain it.
+ */
+public class Decimator {
+
+    private long[] data;
+    // levels[l]: min and max index of each bucket of 1 << l points, -1 until computed
+    private final int[][] levels = new int[31][];
+
+    public Decimator(long[] data) {
+        setData(data);
+    }
+
+    public void setData(long[] data) {
+        this.data = data;
+        Arrays.fill(levels, null);
+    }
+
+    public int size() {
+        return data.length;
+    }
+
+    public long get(int i) {
+        return data[i];
+    }
+
+    public void set(int i, long value) {
+        data[i] = value;
+        for (int l = 1; l < levels.length; l++) {
+            if (levels[l] != null)
+                levels[l][2 * (i >> l)] = -1;
+        }
+    }
+
+    /**
+     * @return the smallest bucket level that fits span points in columns
+     */
+    public static int level(int span, int columns) {
+        int level = 0;
+        while (level < 30 && (span + (1 << level) - 1) >> level > columns)
+            level++;
+        return level;
+    }
+
+    /**
+     * @return an output size that is enough for any range on columns
+     */
+    public static int capacity(int columns) {
+        // A range can start and end part way through a bucket
+        return 2 * (columns + 1);
+    }
+
+    /**
+     * Writes the indices to draw for [from, to) on the given number of
+     * columns to out, in ascending order. Whole buckets are returned, so the
+     * first and last may lie just outside the range.
+     *
+     * @param out at least {@link #capacity(int)} long
+     * @return how many indices were written
+     */
+    public int select(int from, int to, int columns, int[] out) {
+        from = Math.max(0, from);
+        to = Math.min(data.length, to);
+        if (to <= from)
+            return 0;
+        int level = level(to - from, columns);
+        int n = 0;
+        if (level == 0) {
+            for (int i = from; i < to; i++)
+                out[n++] = i;
+            return n;
+        }
+        for (int b = from >> level, last = (to - 1) >> level; b <= last; b++) {
+            int[] bucket = bucket(level, b);
+            int lo = bucket[2 * b];
+            int hi = bucket[2 * b + 1];
+            out[n++] = Math.min(lo, hi);
+            if (lo != hi)
+                out[n++] = Math.max(lo, hi);
+        }
+        return n;
+    }
+
+    /**
+     * @return the level's cache, with bucket b computed
+     */
+    private int[] bucket(int level, int b) {
+        int[] cache = levels[level];
+        if (cache == null) {
+            int buckets = (data.length + (1 << level) - 1) >> level;
+            cache = new int[2 * buckets];
+            Arrays.fill(cache, -1);
+            levels[level] = cache;
+        }
+        if (cache[2 * b] >= 0)
+            return cache;
+
+        int lo;
+        int hi;
+        int[] finer = level > 1 ? levels[level - 1] : null;
+        if (finer != null) {
+            // Two buckets of the finer level, the second may be past the end
+            bucket(level - 1, 2 * b);
+            lo = finer[4 * b];
+            hi = finer[4 * b + 1];
+            if (2 * b + 1 < finer.length / 2) {
+                bucket(level - 1, 2 * b + 1);
+                int lo2 = finer[4 * b + 2];
+                int hi2 = finer[4 * b + 3];
+                if (data[lo2] < data[lo])
+                    lo = lo2;
+                if (data[hi2] > data[hi])
+                    hi = hi2;
+            }
+        } else {
+            int start = b << level;
+            int end = Math.min(data.length, start + (1 << level));
+            lo = start;
+            hi = start;
+            for (int i = start + 1; i < end; i++) {
+                if (data[i] < data[lo])
+                    lo = i;
+                if (data[i] > data[hi])
+                    hi = i;
+            }
+        }
+        cache[2 * b + 1] = hi;
+        cache[2 * b] = lo;
+        return cache;
+    }
+}
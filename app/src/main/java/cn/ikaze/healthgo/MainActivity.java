@@ -7,7 +7,9 @@ import android.content.SharedPreferences;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.graphics.Color;
+import android.graphics.Paint;
 import android.graphics.Typeface;
+import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
 import android.support.design.widget.Snackbar;
@@ -16,8 +18,10 @@ import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.Toolbar;
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.LayoutInflater;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.widget.CompoundButton;
 import android.widget.LinearLayout;
 import android.widget.PopupWindow;
@@ -25,26 +29,27 @@ import android.widget.Switch;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import org.greenrobot.eventbus.EventBus;
-import org.greenrobot.eventbus.Subscribe;
-import org.greenrobot.eventbus.ThreadMode;
-
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
 
+import cn.ikaze.healthgo.model.StepHistory;
 import cn.ikaze.healthgo.model.StepModel;
 import cn.ikaze.healthgo.model.StepTransaction;
+import cn.ikaze.healthgo.step.StepChannel;
 import cn.ikaze.healthgo.step.StepService;
 import io.realm.Realm;
 import lecho.lib.hellocharts.gesture.ContainerScrollType;
 import lecho.lib.hellocharts.gesture.ZoomType;
+import lecho.lib.hellocharts.listener.ViewportChangeListener;
 import lecho.lib.hellocharts.model.Axis;
 import lecho.lib.hellocharts.model.AxisValue;
 import lecho.lib.hellocharts.model.Line;
 import lecho.lib.hellocharts.model.LineChartData;
 import lecho.lib.hellocharts.model.PointValue;
 import lecho.lib.hellocharts.model.ValueShape;
+import lecho.lib.hellocharts.model.Viewport;
 import lecho.lib.hellocharts.view.LineChartView;
 
 
@@ -54,7 +59,8 @@ public class MainActivity extends AppCompatActivity implements CompoundButton.On
     private View mLayout;
     Switch on_off, foreground_model;
     SharedPreferences sharedPreferences;
-    EventBus bus;
+    StepChannel channel;
+    StepChannel.Subscription subscription;
     long numSteps;
     boolean isServiceRun;
     boolean isforeground_model;
@@ -63,6 +69,60 @@ public class MainActivity extends AppCompatActivity implements CompoundButton.On
     LineChartView lineChart;
     List<PointValue> mPointValues = new ArrayList<>();
     List<AxisValue> mAxisXValues = new ArrayList<>();
+    // Backs mPointValues; both are kept and updated in place once built
+    ChartWindow chartWindow;
+    LineChartData chartData;
+    // Set once the history has more days than the chart has pixel columns;
+    // mPointValues then only holds the days it selects for the viewport
+    Decimator decimator;
+    private int chartColumns;
+    private int[] selection;
+    private final List<PointValue> pointPool = new ArrayList<>();
+    private int selectedFrom = -1;
+    private int selectedTo = -1;
+    private final StepDisplay display = new StepDisplay();
+    // Cancelled in onDestroy so a slow query never reaches a dead activity's views
+    private AsyncTask<Void, Void, long[]> historyTask;
+    // Runs counts on the next frame, so they are shown at most once per frame.
+    // Posts within a frame coalesce into one run of the latest runnable; it
+    // serves the count subscription only, whose runs are interchangeable.
+    private final Executor nextFrame = new Executor() {
+        private final Choreographer choreographer = Choreographer.getInstance();
+        // Set from the step thread, taken on the main thread
+        private final AtomicReference<Runnable> pending = new AtomicReference<>();
+        private final Choreographer.FrameCallback frame = new Choreographer.FrameCallback() {
+            @Override
+            public void doFrame(long frameTimeNanos) {
+                Runnable command = pending.getAndSet(null);
+                if (command != null)
+                    command.run();
+            }
+        };
+
+        @Override
+        public void execute(Runnable command) {
+            if (pending.getAndSet(command) == null)
+                choreographer.postFrameCallback(frame);
+        }
+    };
+    private final ViewTreeObserver.OnGlobalLayoutListener layoutCounter =
+            new ViewTreeObserver.OnGlobalLayoutListener() {
+                @Override
+                public void onGlobalLayout() {
+                    display.onLayout();
+                }
+            };
+    private final StepChannel.Listener stepsListener = new StepChannel.Listener() {
+        @Override
+        public void onSteps(long steps) {
+            updateSteps(steps);
+        }
+    };
+    // Days shown in the chart unless conf overrides it with history_days
+    private static final int HISTORY_DAYS = 6;
+    private static final int CHART_ANIMATION_MS = 250;
+    // Width of a pixel column that gets its own min and max point
+    private static final int CHART_COLUMN_PX = 4;
 
     public void mybt(View v) {
         showPopupWindow(v);
@@ -86,6 +146,7 @@ public class MainActivity extends AppCompatActivity implements CompoundButton.On
 
         Log.d("eee", "on create()");
         showSteps = (TextView) findViewById(R.id.showSteps);
+        showSteps.getViewTreeObserver().addOnGlobalLayoutListener(layoutCounter);
         mLayout = findViewById(R.id.mylayout);
         on_off = (Switch) findViewById(R.id.on_off);
         foreground_model = (Switch) findViewById(R.id.foreground_model);
@@ -95,15 +156,13 @@ public class MainActivity extends AppCompatActivity implements CompoundButton.On
 
         detectService();
 
-        bus = EventBus.getDefault();
-        bus.register(this);
+        channel = StepChannel.get();
 
         Realm realm = Realm.getDefaultInstance();
         StepModel result = realm.where(StepModel.class)
-                .equalTo("date", DateTimeHelper.getToday())
+                .equalTo("day", DateTimeHelper.getEpochDay())
                 .findFirst();
         numSteps = result == null ? 0 : result.getNumSteps();
-        bus.post(true);
         updateShowSteps();
         realm.close();
 
@@ -112,47 +171,186 @@ public class MainActivity extends AppCompatActivity implements CompoundButton.On
 
     }
 
+    /**
+     * Loads the history window with one query off the main thread, then draws it.
+     */
     public void drawChart() {
 
         // WeatherChartView mCharView = (WeatherChartView) findViewById(R.id.line_char);
-        Date[] days = DateTimeHelper.get6days();
-
-        Realm realm = Realm.getDefaultInstance();
-
-        int[] data = new int[]{0, 0, 0, 0, 0, 0};
-        int i = 0;
-        for (Date d : days) {
-            Log.d("eee","date "+d);
-            if (i == 5) {
-                data[i] = Integer.parseInt(String.valueOf(numSteps));
-            }
-            else {
-                StepModel result = realm.where(StepModel.class)
-                        .equalTo("date", d)
-                        .findFirst();
-                if (result != null) {
-                    Log.d("eee","r !null  ");
-                    data[i] = Integer.parseInt(String.valueOf(result.getNumSteps()));
+        final int days = sharedPreferences.getInt("history_days", HISTORY_DAYS);
+        if (historyTask != null)
+            historyTask.cancel(false);
+        historyTask = new AsyncTask<Void, Void, long[]>() {
+            @Override
+            protected long[] doInBackground(Void... params) {
+                Realm realm = Realm.getDefaultInstance();
+                try {
+                    return StepHistory.query(realm, DateTimeHelper.getEpochDay(), days);
+                } finally {
+                    realm.close();
                 }
             }
-            i++;
-        }
 
-        realm.close();
-
-        String[] xValues = DateTimeHelper.get6days(true);
+            @Override
+            protected void onPostExecute(long[] data) {
+                historyTask = null;
+                showChart(data);
+            }
+        };
+        historyTask.execute();
+    }
 
+    private void showChart(long[] data) {
+        int today = DateTimeHelper.getEpochDay();
+        if (chartWindow == null || chartWindow.size() != data.length) {
+            chartWindow = new ChartWindow(data.length);
+            chartData = null;
+            mAxisXValues.clear();
+            mPointValues.clear();
+            chartColumns = Math.max(1, getResources().getDisplayMetrics().widthPixels / CHART_COLUMN_PX);
+            decimator = data.length > chartColumns ? new Decimator(new long[data.length]) : null;
+            selection = decimator != null ? new int[Decimator.capacity(chartColumns)] : null;
+        }
+        chartWindow.load(today, data);
+        // Today's count is live, the stored one may lag behind
+        chartWindow.set(today, numSteps);
 
         lineChart = (LineChartView) findViewById(R.id.line_chart);
-        for (i = 0; i < xValues.length; i++) {
-            mAxisXValues.add(new AxisValue(i).setLabel(xValues[i]));
+        if (chartData == null) {
+            for (int i = 0; i < data.length; i++) {
+                mAxisXValues.add(new AxisValue(i));
+                if (decimator == null)
+                    mPointValues.add(new PointValue(i, 0));
+            }
+            bindChart(false);
+            initLineChart();//initialization
+            if (decimator != null)
+                initDecimatedChart();
+        } else {
+            bindChart(true);
+        }
+
+    }
+
+    /**
+     * Copies the window into the existing points and labels, moving the
+     * points there or, if animate is set, sliding them.
+     */
+    private void bindChart(boolean animate) {
+        int first = chartWindow.getFirstDay();
+        if (decimator != null) {
+            long[] days = new long[chartWindow.size()];
+            for (int i = 0; i < days.length; i++) {
+                mAxisXValues.get(i).setLabel(DateTimeHelper.getDayLabel(first + i));
+                days[i] = chartWindow.getAt(i);
+            }
+            decimator.setData(days);
+            selectedFrom = -1;
+            if (chartData != null)
+                refreshDecimatedChart();
+            else
+                selectDays(0, days.length);
+            return;
         }
+        if (animate)
+            lineChart.cancelDataAnimation();
+        for (int i = 0; i < chartWindow.size(); i++) {
+            mAxisXValues.get(i).setLabel(DateTimeHelper.getDayLabel(first + i));
+            if (animate)
+                mPointValues.get(i).setTarget(i, chartWindow.getAt(i));
+            else
+                mPointValues.get(i).set(i, chartWindow.getAt(i));
+        }
+        if (animate)
+            lineChart.startDataAnimation(CHART_ANIMATION_MS);
+    }
 
-        for (i = 0; i < data.length; i++) {
-            mPointValues.add(new PointValue(i, data[i]));
+    /**
+     * Moves today's point to numSteps. Past midnight the window first
+     * scrolls by the days that went by.
+     */
+    private void updateChartToday() {
+        if (chartData == null)
+            return;
+        int today = DateTimeHelper.getEpochDay();
+        int appended = chartWindow.advanceTo(today);
+        boolean changed = chartWindow.set(today, numSteps);
+        if (decimator != null) {
+            if (appended > 0) {
+                bindChart(false);
+            } else if (changed) {
+                decimator.set(chartWindow.size() - 1, numSteps);
+                selectedFrom = -1;
+                refreshDecimatedChart();
+            }
+            return;
         }
-        initLineChart();//initialization
+        if (appended > 0) {
+            bindChart(true);
+        } else if (changed) {
+            int last = chartWindow.size() - 1;
+            lineChart.cancelDataAnimation();
+            mPointValues.get(last).setTarget(last, numSteps);
+            lineChart.startDataAnimation(CHART_ANIMATION_MS);
+        }
+    }
+
+    /**
+     * Puts the days decimator selects for [from, to) into mPointValues,
+     * reusing the point objects.
+     *
+     * @return false if that range is already shown
+     */
+    private boolean selectDays(int from, int to) {
+        if (from == selectedFrom && to == selectedTo)
+            return false;
+        selectedFrom = from;
+        selectedTo = to;
+        int n = decimator.select(from, to, chartColumns, selection);
+        while (pointPool.size() < n)
+            pointPool.add(new PointValue(0, 0));
+        mPointValues.clear();
+        for (int i = 0; i < n; i++)
+            mPointValues.add(pointPool.get(i).set(selection[i], decimator.get(selection[i])));
+        return true;
+    }
 
+    /**
+     * Long histories: the chart scales to the whole history itself and
+     * re-decimates whenever zooming or scrolling changes the visible days.
+     */
+    private void initDecimatedChart() {
+        Line line = chartData.getLines().get(0);
+        // Hundreds of labels and dots would cover the line
+        line.setHasLabels(false);
+        line.setHasPoints(false);
+        lineChart.setViewportCalculationEnabled(false);
+        lineChart.setMaxZoom(Math.max(2, chartWindow.size() / 7f));
+        updateMaximumViewport(true);
+        lineChart.setViewportChangeListener(new ViewportChangeListener() {
+            @Override
+            public void onViewportChanged(Viewport viewport) {
+                refreshDecimatedChart();
+            }
+        });
+    }
+
+    private void updateMaximumViewport(boolean reset) {
+        long max = 0;
+        for (int i = 0; i < chartWindow.size(); i++)
+            max = Math.max(max, chartWindow.getAt(i));
+        Viewport viewport = new Viewport(0, max * 1.1f + 1, chartWindow.size() - 1, 0);
+        lineChart.setMaximumViewport(viewport);
+        if (reset)
+            lineChart.setCurrentViewport(viewport);
+    }
+
+    private void refreshDecimatedChart() {
+        Viewport viewport = lineChart.getCurrentViewport();
+        if (numSteps > lineChart.getMaximumViewport().top)
+            updateMaximumViewport(false);
+        if (selectDays((int) Math.floor(viewport.left), (int) Math.ceil(viewport.right) + 1))
+            lineChart.setLineChartData(chartData);
     }
 
     private void initLineChart() {
@@ -168,6 +366,7 @@ public class MainActivity extends AppCompatActivity implements CompoundButton.On
         lines.add(line);
         LineChartData data = new LineChartData();
         data.setLines(lines);
+        chartData = data;
 
         //Axis
         Axis axisX = new Axis(); //X axis
@@ -208,36 +407,63 @@ public class MainActivity extends AppCompatActivity implements CompoundButton.On
     }
 
 
-    @Subscribe(threadMode = ThreadMode.MAIN)
-    public void updateSteps(Long num) {
+    private void subscribe() {
+        if (subscription == null)
+            subscription = channel.subscribe(stepsListener, nextFrame);
+    }
+
+    private void unsubscribe() {
+        if (subscription != null) {
+            subscription.cancel();
+            subscription = null;
+        }
+    }
+
+    public void updateSteps(long num) {
         numSteps = num;
         updateShowSteps();
+        updateChartToday();
     }
 
+    /**
+     * Shows numSteps. The view is as wide as the longest count of the current
+     * digit bucket, so a new count only redraws it; the size, and with it the
+     * layout, changes only when the count moves to another bucket.
+     */
     public void updateShowSteps() {
-        String text = "" + numSteps;
-
-        if (numSteps >= 10000000)
-            showSteps.setTextSize(45);
+        long start = System.nanoTime();
+        if (display.update(numSteps)) {
+            showSteps.setTextSize(StepDisplay.textSize(display.getBucket()));
+            fitStepsWidth(StepDisplay.maxDigits(display.getBucket()));
+        }
 
-        else if (numSteps >= 1000000)
-            showSteps.setTextSize(50);
-        else if (numSteps >= 100000)
-            showSteps.setTextSize(55);
-        else if (numSteps >= 10000) {
+        if (display.getBucket() == 1) {
             notifyIsUpToStandard( "That’s great, you have exceeded 10,000 steps today");
-            showSteps.setTextSize(60);
         }
 
-        else {
-            showSteps.setTextSize(66);
+        else if (display.getBucket() == 0) {
             if (numSteps>=5000) notifyIsUpToStandard("Come on, you have walked and you will reach 10,000 steps");
             else notifyIsUpToStandard("You haven't walked much today, go out and exercise");
         }
-        showSteps.setText(text);
+        showSteps.setText(Long.toString(numSteps));
+        display.addTime(System.nanoTime() - start);
 
     }
 
+    /**
+     * Fixes the width of showSteps to that of its widest count of the given
+     * number of digits. A wrap_content TextView asks for a layout whenever
+     * the new text is wider or narrower than the old.
+     */
+    private void fitStepsWidth(int digits) {
+        Paint paint = showSteps.getPaint();
+        float digit = 0;
+        for (char c = '0'; c <= '9'; c++)
+            digit = Math.max(digit, paint.measureText(String.valueOf(c)));
+        showSteps.setWidth((int) Math.ceil(digit * digits)
+                + showSteps.getCompoundPaddingLeft() + showSteps.getCompoundPaddingRight());
+    }
+
     private void notifyIsUpToStandard(String msg)
     {
         MyApplication app = (MyApplication) getApplication();
@@ -339,13 +565,33 @@ public class MainActivity extends AppCompatActivity implements CompoundButton.On
         builder.create().show();
     }
 
+    /**
+     * Live counts only while the activity is on screen. Once it is stopped,
+     * e.g. in the back stack after Home, the service goes back to batching.
+     */
+    @Override
+    protected void onStart() {
+        super.onStart();
+        subscribe();
+        channel.setVisible(true);
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        Log.d("eee", "activity stop()");
+        channel.setVisible(false);
+        unsubscribe();
+    }
+
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        Log.d("eee", "activity stop()");
-        bus.post(false);
-        if (bus.isRegistered(this))
-            bus.unregister(this);
+        if (historyTask != null) {
+            historyTask.cancel(false);
+            historyTask = null;
+        }
+        Log.d("eee", display.report());
     }
 
     @Override
@@ -359,19 +605,17 @@ public class MainActivity extends AppCompatActivity implements CompoundButton.On
 
             if (isChecked) {
                 intent.putExtra("isActivity", true);
-                if (!bus.isRegistered(this))
-                    bus.register(this);
+                subscribe();
                 startService(intent);
-                bus.post(true);
+                channel.setVisible(true);
             } else {
                 editor.putBoolean("foreground_model", isChecked);
                 editor.apply();
                 foreground_model.setChecked(false);
-                if (bus.isRegistered(this))
-                    bus.unregister(this);
+                unsubscribe();
                 stopService(intent);
                 Realm realm = Realm.getDefaultInstance();
-                realm.executeTransaction(new StepTransaction(DateTimeHelper.getToday(), numSteps));
+                realm.executeTransaction(new StepTransaction(DateTimeHelper.getEpochDay(), numSteps));
                 realm.close();
             }
         } else if (buttonView.getId() == R.id.foreground_model) {
@@ -386,9 +630,8 @@ public class MainActivity extends AppCompatActivity implements CompoundButton.On
                 on_off.setChecked(true);
                 intent.putExtra("foreground_model", "on");
                 intent.putExtra("isActivity", true);
-                if (!bus.isRegistered(this))
-                    bus.register(this);
-                bus.post(true);
+                subscribe();
+                channel.setVisible(true);
             } else {
                 intent.putExtra("foreground_model", "off");
             }
@@ -19,6 +19,7 @@ package cn.ikaze.healthgo;
 import android.app.Application;
 import android.util.Log;
 
+import cn.ikaze.healthgo.model.StepMigration;
 import io.realm.Realm;
 import io.realm.RealmConfiguration;
 
@@ -52,6 +53,8 @@ public class MyApplication extends Application {
         Realm.init(this);
         RealmConfiguration realmConfig = new RealmConfiguration.Builder()
                 .name("step_db")
+                .schemaVersion(StepMigration.SCHEMA_VERSION)
+                .migration(new StepMigration())
                 .build();
         Log.d("app","app create()");
         Realm.setDefaultConfiguration(realmConfig); // Make this Realm the default
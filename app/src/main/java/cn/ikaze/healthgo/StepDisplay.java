@@ -0,0 +1,94 @@
+package cn.ikaze.healthgo;
+
+import java.util.Locale;
+
+
+/**
+ * What the step counter on the main screen needs beyond the number itself:
+ * the text size, which only depends on how many digits the count has, and
+ * counters for how much work updating it costs on the main thread.
+ */
+public class StepDisplay {
+
+    // Text size in sp for counts of up to 4, 5, 6, 7 and 8+ digits
+    private static final float[] SIZES = {66, 60, 55, 50, 45};
+
+    private int updates;
+    private int sizeChanges;
+    private int layouts;
+    private long updateNs;
+    private int bucket = -1;
+
+    /**
+     * @return 0 for counts below 10000, then one more per extra digit, up to 4
+     */
+    public static int bucket(long steps) {
+        int bucket = 0;
+        for (long limit = 10000; steps >= limit && bucket < SIZES.length - 1; limit *= 10)
+            bucket++;
+        return bucket;
+    }
+
+    public static float textSize(int bucket) {
+        return SIZES[bucket];
+    }
+
+    /**
+     * @return digits of the longest count in a bucket; the last one is sized
+     * for 8 digits, more than anyone walks in a day
+     */
+    public static int maxDigits(int bucket) {
+        return bucket + 4;
+    }
+
+    /**
+     * Records an update of the shown count.
+     *
+     * @return true if the text size has to change
+     */
+    public boolean update(long steps) {
+        updates++;
+        int next = bucket(steps);
+        if (next == bucket)
+            return false;
+        bucket = next;
+        sizeChanges++;
+        return true;
+    }
+
+    /**
+     * Adds main thread time spent on an update.
+     */
+    public void addTime(long ns) {
+        updateNs += ns;
+    }
+
+    public int getBucket() {
+        return bucket;
+    }
+
+    public void onLayout() {
+        layouts++;
+    }
+
+    public int getUpdates() {
+        return updates;
+    }
+
+    public int getSizeChanges() {
+        return sizeChanges;
+    }
+
+    public int getLayouts() {
+        return layouts;
+    }
+
+    public long getUpdateNs() {
+        return updateNs;
+    }
+
+    public String report() {
+        return String.format(Locale.US, "ui %d updates, %d size changes, %d layouts, %.1f ms",
+                updates, sizeChanges, layouts, updateNs / 1e6);
+    }
+}
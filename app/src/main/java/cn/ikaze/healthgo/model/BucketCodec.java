@@ -0,0 +1,67 @@
+package cn.ikaze.healthgo.model;
+
+import java.io.ByteArrayOutputStream;
+
+
+/**
+ * Compact encoding for a day of step buckets. Most buckets are empty, so each
+ * token is a varint that is either a count ({@code count << 1}) or a run of
+ * empty buckets ({@code run << 1 | 1}); trailing empty buckets are omitted.
+ * A typical day of minute buckets takes a few hundred bytes.
+ */
+public class BucketCodec {
+
+    public static byte[] encode(int[] buckets, int length) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        int zeros = 0;
+        for (int i = 0; i < length; i++) {
+            if (buckets[i] == 0) {
+                zeros++;
+                continue;
+            }
+            if (zeros > 0) {
+                writeVarint(out, (zeros << 1) | 1);
+                zeros = 0;
+            }
+            writeVarint(out, buckets[i] << 1);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes into out, adding to what is already there so several days or
+     * bucket sizes can be folded into one array.
+     *
+     * @return number of buckets the data covered
+     */
+    public static int decodeInto(byte[] data, int[] out, int offset) {
+        int pos = 0;
+        int i = offset;
+        while (pos < data.length) {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[pos++];
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+
+            if ((value & 1) != 0)
+                i += value >>> 1;
+            else if (i < out.length)
+                out[i++] += value >>> 1;
+            else
+                i++;
+        }
+        return i - offset;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+}
@@ -0,0 +1,73 @@
+package cn.ikaze.healthgo.model;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * Folds what a {@link StepJournal} holds beyond Realm back into each day: its
+ * highest running total and its buckets. Stored buckets carry the first
+ * journal record they do not include, so records a save already covered are
+ * skipped even when the process died before the journal was compacted, and
+ * replaying the same records twice adds nothing twice.
+ */
+public class JournalRecovery implements StepJournal.Visitor {
+
+    public interface Days {
+        /**
+         * @return the day's stored buckets, with their journal sequence number
+         */
+        StepSeries load(int day);
+    }
+
+    private final Days days;
+    private final Map<Integer, Long> totals = new HashMap<>();
+    private final Map<Integer, StepSeries> series = new HashMap<>();
+
+    public JournalRecovery(Days days) {
+        this.days = days;
+    }
+
+    @Override
+    public void record(long seq, long time, int day, int delta, long total) {
+        Long max = totals.get(day);
+        if (max == null || total > max)
+            totals.put(day, total);
+        StepSeries s = series.get(day);
+        if (s == null) {
+            s = days.load(day);
+            series.put(day, s);
+        }
+        if (seq >= s.getJournalSeq()) {
+            s.add(time, delta);
+            s.setJournalSeq(seq + 1);
+        }
+    }
+
+    /**
+     * @return days the journal had records of
+     */
+    public Set<Integer> getDays() {
+        return totals.keySet();
+    }
+
+    /**
+     * Rolls the day up into a daily count: the highest running total recorded,
+     * or the sum of its buckets if that is more. Running totals leave out the
+     * saved count while a new day's is still being read, the buckets do not.
+     */
+    public long getTotal(int day) {
+        Long max = totals.get(day);
+        StepSeries s = series.get(day);
+        return Math.max(max == null ? 0 : max, s == null ? 0 : s.total());
+    }
+
+    /**
+     * @return each day's buckets with the journal's steps added
+     */
+    public Collection<StepSeries> getSeries() {
+        return series.values();
+    }
+}
@@ -0,0 +1,34 @@
+package cn.ikaze.healthgo.model;
+
+import io.realm.Realm;
+
+
+/**
+ * Stores one day of encoded step buckets, with the first journal record they
+ * do not include.
+ */
+public class SeriesTransaction implements Realm.Transaction {
+
+    private int day;
+    private int bucketMinutes;
+    private byte[] buckets;
+    private long journalSeq;
+
+    public SeriesTransaction(int day, int bucketMinutes, byte[] buckets, long journalSeq) {
+        this.day = day;
+        this.bucketMinutes = bucketMinutes;
+        this.buckets = buckets;
+        this.journalSeq = journalSeq;
+    }
+
+    @Override
+    public void execute(Realm realm) {
+        StepSeriesModel series = realm.where(StepSeriesModel.class).equalTo("day", day).findFirst();
+
+        if (series == null)
+            series = realm.createObject(StepSeriesModel.class, day);
+        series.setBucketMinutes(bucketMinutes);
+        series.setBuckets(buckets);
+        series.setJournalSeq(journalSeq);
+    }
+}
@@ -0,0 +1,62 @@
+package cn.ikaze.healthgo.model;
+
+import io.realm.RealmObject;
+import io.realm.annotations.PrimaryKey;
+
+
+/**
+ * Totals of one week, month or year, kept up to date with every write of a
+ * {@link StepModel} by {@link StepAggregates}.
+ */
+public class StepAggregate extends RealmObject {
+    // StepPeriods.key(kind, period)
+    @PrimaryKey
+    private long key;
+    private int kind;
+    private int period;
+    private long totalSteps;
+    private int days;
+    private long maxSteps;
+
+    public long getKey() {
+        return key;
+    }
+
+    public int getKind() {
+        return kind;
+    }
+
+    public void setKind(int kind) {
+        this.kind = kind;
+    }
+
+    public int getPeriod() {
+        return period;
+    }
+
+    public void setPeriod(int period) {
+        this.period = period;
+    }
+
+    public long getTotalSteps() {
+        return totalSteps;
+    }
+
+    public int getDays() {
+        return days;
+    }
+
+    public long getMaxSteps() {
+        return maxSteps;
+    }
+
+    public StepTotals getTotals() {
+        return new StepTotals(totalSteps, days, maxSteps);
+    }
+
+    public void setTotals(StepTotals totals) {
+        totalSteps = totals.getTotalSteps();
+        days = totals.getDays();
+        maxSteps = totals.getMaxSteps();
+    }
+}
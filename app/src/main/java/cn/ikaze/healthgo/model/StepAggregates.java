@@ -0,0 +1,97 @@
+package cn.ikaze.healthgo.model;
+
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import io.realm.Realm;
+
+
+/**
+ * Weekly, monthly and yearly totals of {@link StepModel}, maintained in the
+ * transaction that writes each day so a summary is one lookup by key.
+ */
+public class StepAggregates {
+
+    /**
+     * Moves the totals of the day's week, month and year along with a write.
+     * Call inside the writing transaction, after the StepModel is set.
+     *
+     * @param existed false if the day's StepModel was just created
+     * @param before  the day's count before the write
+     */
+    public static void update(Realm realm, int day, boolean existed, long before, long after) {
+        update(realm, new StepAggregate[StepPeriods.KINDS], day, existed, before, after);
+    }
+
+    /**
+     * As {@link #update(Realm, int, boolean, long, long)}, reusing the day's
+     * aggregates from an earlier write. Entries that are null or no longer
+     * valid are looked up, or created, and stored back into the array.
+     *
+     * @param aggregates the day's aggregates by kind, kept by the caller
+     */
+    public static void update(final Realm realm, StepAggregate[] aggregates, int day, boolean existed,
+                              long before, long after) {
+        if (existed && before == after)
+            return;
+        StepTotals[] totals = new StepTotals[StepPeriods.KINDS];
+        for (int kind = 0; kind < StepPeriods.KINDS; kind++) {
+            if (aggregates[kind] == null || !aggregates[kind].isValid())
+                aggregates[kind] = find(realm, kind, StepPeriods.period(kind, day));
+            totals[kind] = aggregates[kind].getTotals();
+        }
+        StepTotals.update(totals, day, existed, before, after, new StepTotals.Days() {
+            @Override
+            public long maxSteps(int firstDay, int lastDay) {
+                // The best day went down; only this period's days can tell the new one
+                Number max = realm.where(StepModel.class)
+                        .between("day", firstDay, lastDay)
+                        .max("numSteps");
+                return max == null ? 0 : max.longValue();
+            }
+        });
+        for (int kind = 0; kind < StepPeriods.KINDS; kind++)
+            aggregates[kind].setTotals(totals[kind]);
+    }
+
+    private static StepAggregate find(Realm realm, int kind, int period) {
+        long key = StepPeriods.key(kind, period);
+        StepAggregate aggregate = realm.where(StepAggregate.class).equalTo("key", key).findFirst();
+        if (aggregate == null) {
+            aggregate = realm.createObject(StepAggregate.class, key);
+            aggregate.setKind(kind);
+            aggregate.setPeriod(period);
+        }
+        return aggregate;
+    }
+
+    /**
+     * @return the totals of the week, month or year containing day, or null
+     * if it has no steps recorded
+     */
+    public static StepAggregate get(Realm realm, int kind, int day) {
+        return realm.where(StepAggregate.class)
+                .equalTo("key", StepPeriods.key(kind, StepPeriods.period(kind, day)))
+                .findFirst();
+    }
+
+    /**
+     * Recomputes every aggregate from the days. Call inside a transaction.
+     */
+    public static void rebuild(Realm realm) {
+        Map<Long, StepTotals> totals = new HashMap<>();
+        for (StepModel model : realm.where(StepModel.class).findAll())
+            StepTotals.accumulate(totals, model.getDay(), model.getNumSteps());
+        realm.delete(StepAggregate.class);
+        for (Map.Entry<Long, StepTotals> entry : totals.entrySet()) {
+            long key = entry.getKey();
+            StepAggregate aggregate = realm.createObject(StepAggregate.class, key);
+            aggregate.setKind((int) (key >>> 32));
+            aggregate.setPeriod((int) key);
+            aggregate.setTotals(entry.getValue());
+        }
+        Log.d("realm", "rebuilt " + totals.size() + " aggregates");
+    }
+}
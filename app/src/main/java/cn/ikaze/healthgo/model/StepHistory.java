@@ -0,0 +1,29 @@
+package cn.ikaze.healthgo.model;
+
+import io.realm.Realm;
+import io.realm.RealmResults;
+
+
+/**
+ * Daily step history for any window of days, fetched with one range query on
+ * the epoch day key.
+ */
+public class StepHistory {
+
+    /**
+     * @param lastDay epoch day of the last day in the window
+     * @param days    window length
+     * @return steps per day, oldest first; days without a record are 0
+     */
+    public static long[] query(Realm realm, int lastDay, int days) {
+        long[] steps = new long[days];
+        int firstDay = lastDay - days + 1;
+        RealmResults<StepModel> results = realm.where(StepModel.class)
+                .between("day", firstDay, lastDay)
+                .findAll();
+        for (StepModel model : results) {
+            steps[model.getDay() - firstDay] = model.getNumSteps();
+        }
+        return steps;
+    }
+}
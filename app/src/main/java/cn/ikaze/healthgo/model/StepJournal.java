@@ -0,0 +1,221 @@
+package cn.ikaze.healthgo.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import cn.ikaze.healthgo.DateTimeHelper;
+
+
+/**
+ * Append-only journal of step deltas in a memory-mapped file. Writing a record
+ * is a few stores into the page cache, cheap enough for every step, and the
+ * data survives the process being killed. Records that made it into Realm are
+ * dropped with {@link #compactThrough(long)}; whatever is left on the next
+ * start is replayed with {@link #replay(Visitor)}.
+ * <p>
+ * Records sit in a ring indexed by sequence number, and appending or
+ * compacting moves one bound of the ring with a single int store, so a kill
+ * at any point leaves each record either there once or gone. A record can
+ * still outlive the save that covered it when the kill falls between the two;
+ * savers store the sequence number they covered along with the data, see
+ * {@link JournalRecovery}. The detector thread appends while the persistence
+ * thread compacts, so access is synchronized.
+ */
+public class StepJournal {
+
+    public interface Visitor {
+        void record(long seq, long time, int day, int delta, long total);
+    }
+
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private static final int MAGIC = 0x48474A4C; // "HGJL"
+    // 1 stored the day as local midnight in epoch millis, 2 as an epoch day,
+    // 3 keeps the records in a ring so compacting never moves one
+    private static final int VERSION = 3;
+    private static final int HEADER = 24;
+    private static final int RECORD = 24;
+    // Version 2: record count and first sequence number, records from the start
+    private static final int OFFSET_COUNT = 8;
+    private static final int OFFSET_FIRST_SEQ = 16;
+    // Version 3: sequence numbers of the first record and of the next one.
+    // OFFSET_END is the low half of the old first sequence number, so an
+    // upgrade cut short still reads as an empty version 2 journal.
+    private static final int OFFSET_FIRST = 12;
+    private static final int OFFSET_END = 20;
+    // Sequence numbers are stored in 32 bits, billions of records
+    private static final long SEQ_MASK = 0xffffffffL;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private long first;
+    private long end;
+    // A version 2 journal still holding records is read in place, without
+    // appending, until they are all compacted away
+    private boolean legacy;
+    private long legacyFirst;
+
+    public StepJournal(File path) throws IOException {
+        this(path, DEFAULT_CAPACITY);
+    }
+
+    public StepJournal(File path, int capacity) throws IOException {
+        this.capacity = capacity;
+        file = new RandomAccessFile(path, "rw");
+        channel = file.getChannel();
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + (long) capacity * RECORD);
+        if (buffer.getInt(0) == MAGIC && buffer.getInt(4) == 1)
+            upgradeFromMillis();
+        if (buffer.getInt(0) == MAGIC && buffer.getInt(4) == 2) {
+            int count = Math.max(0, Math.min(capacity, buffer.getInt(OFFSET_COUNT)));
+            legacyFirst = buffer.getLong(OFFSET_FIRST_SEQ);
+            if (count == 0) {
+                reformat(legacyFirst);
+            } else {
+                legacy = true;
+                first = legacyFirst;
+                end = legacyFirst + count;
+            }
+        } else if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            buffer.putInt(0, MAGIC);
+            reformat(0);
+        } else {
+            first = buffer.getInt(OFFSET_FIRST) & SEQ_MASK;
+            end = buffer.getInt(OFFSET_END) & SEQ_MASK;
+            if (end - first < 0 || end - first > capacity) {
+                // Cut short moving both bounds, see skipTo()
+                first = end;
+                buffer.putInt(OFFSET_FIRST, (int) first);
+            }
+        }
+    }
+
+    private void upgradeFromMillis() {
+        int n = Math.max(0, Math.min(capacity, buffer.getInt(OFFSET_COUNT)));
+        for (int i = 0; i < n; i++) {
+            int offset = HEADER + i * RECORD + 8;
+            long day = buffer.getLong(offset);
+            // Epoch days fit an int and millis of any real date do not, so a
+            // kill part way through the upgrade does not convert twice
+            if (day != (int) day)
+                buffer.putLong(offset, DateTimeHelper.toEpochDay(day));
+        }
+        buffer.putInt(4, 2);
+    }
+
+    /**
+     * Starts an empty version 3 journal whose next record gets seq. Each store
+     * leaves a header that reads as an empty journal of version 2 or 3.
+     */
+    private void reformat(long seq) {
+        buffer.putInt(OFFSET_COUNT, 0);
+        buffer.putInt(OFFSET_FIRST, (int) seq);
+        buffer.putInt(OFFSET_END, (int) seq);
+        buffer.putInt(4, VERSION);
+        first = seq & SEQ_MASK;
+        end = first;
+        legacy = false;
+    }
+
+    private int offset(long seq) {
+        long slot = legacy ? seq - legacyFirst : seq % capacity;
+        return HEADER + (int) slot * RECORD;
+    }
+
+    /**
+     * Appends one record. The end of the ring moves after the record is
+     * written, so a kill part way through loses at most this record.
+     *
+     * @return false if the journal is full
+     */
+    public synchronized boolean append(long time, int day, int delta, long total) {
+        if (isFull())
+            return false;
+        int offset = offset(end);
+        buffer.putLong(offset, time);
+        buffer.putLong(offset + 8, day);
+        buffer.putInt(offset + 16, delta);
+        buffer.putInt(offset + 20, (int) total);
+        end++;
+        buffer.putInt(OFFSET_END, (int) end);
+        return true;
+    }
+
+    /**
+     * @return sequence number the next appended record will get
+     */
+    public synchronized long nextSeq() {
+        return end;
+    }
+
+    public synchronized int size() {
+        return (int) (end - first);
+    }
+
+    public synchronized boolean isFull() {
+        return legacy || end - first == capacity;
+    }
+
+    public synchronized void replay(Visitor visitor) {
+        for (long seq = first; seq < end; seq++) {
+            int offset = offset(seq);
+            visitor.record(seq, buffer.getLong(offset), (int) buffer.getLong(offset + 8),
+                    buffer.getInt(offset + 16), buffer.getInt(offset + 20));
+        }
+    }
+
+    /**
+     * Drops every record with a sequence number below seq, i.e. records that
+     * are already persisted elsewhere.
+     */
+    public synchronized void compactThrough(long seq) {
+        if (seq <= first)
+            return;
+        long next = Math.min(seq, end);
+        if (legacy) {
+            // Records that stay cannot move; a partly compacted old journal
+            // only forgets the dropped ones until it is empty
+            if (next == end)
+                reformat(end);
+            else
+                first = next;
+            return;
+        }
+        first = next;
+        buffer.putInt(OFFSET_FIRST, (int) first);
+    }
+
+    public synchronized void clear() {
+        compactThrough(nextSeq());
+    }
+
+    /**
+     * Moves an empty journal on so its next record gets at least seq, e.g. past
+     * the numbers a lost and recreated journal would hand out again.
+     */
+    public synchronized void skipTo(long seq) {
+        if (legacy || first != end || seq <= end)
+            return;
+        // First bound first: a kill in between leaves first past end, which
+        // reopening reads as empty
+        first = seq;
+        end = seq;
+        buffer.putInt(OFFSET_FIRST, (int) first);
+        buffer.putInt(OFFSET_END, (int) end);
+    }
+
+    public synchronized void close() {
+        buffer.force();
+        try {
+            channel.close();
+            file.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package cn.ikaze.healthgo.model;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TimeZone;
+
+import io.realm.DynamicRealm;
+import io.realm.DynamicRealmObject;
+import io.realm.FieldAttribute;
+import io.realm.RealmMigration;
+import io.realm.RealmObjectSchema;
+import io.realm.RealmSchema;
+
+
+/**
+ * Schema migrations of step_db.
+ */
+public class StepMigration implements RealmMigration {
+
+    public static final long SCHEMA_VERSION = 4;
+
+    private static final long DAY = 86400000L;
+
+    @Override
+    public void migrate(DynamicRealm realm, long oldVersion, long newVersion) {
+        RealmSchema schema = realm.getSchema();
+
+        // 0 -> 1: per-bucket step series
+        if (oldVersion == 0) {
+            schema.create("StepSeriesModel")
+                    .addField("day", long.class, FieldAttribute.PRIMARY_KEY)
+                    .addField("bucketMinutes", int.class)
+                    .addField("buckets", byte[].class);
+            oldVersion++;
+        }
+
+        // 1 -> 2: days keyed by epoch day instead of local midnight
+        if (oldVersion == 1) {
+            TimeZone zone = TimeZone.getDefault();
+            RealmObjectSchema steps = schema.get("StepModel");
+            steps.addField("day", int.class);
+            Map<Integer, DynamicRealmObject> kept = new HashMap<>();
+            for (DynamicRealmObject row : realm.where("StepModel").findAll().createSnapshot()) {
+                Date date = row.getDate("date");
+                if (date == null) {
+                    row.deleteFromRealm();
+                    continue;
+                }
+                int day = toEpochDay(date.getTime(), zone);
+                DynamicRealmObject first = kept.get(day);
+                if (first == null) {
+                    row.setInt("day", day);
+                    kept.put(day, row);
+                    continue;
+                }
+                // Time zone travel wrote the same day twice; keep the larger count
+                if (row.getLong("numSteps") > first.getLong("numSteps"))
+                    first.setLong("numSteps", row.getLong("numSteps"));
+                row.deleteFromRealm();
+            }
+            steps.removeField("date")
+                    .addPrimaryKey("day");
+
+            RealmObjectSchema series = schema.get("StepSeriesModel");
+            series.removePrimaryKey()
+                    .addField("epochDay", int.class);
+            Map<Integer, DynamicRealmObject> keptSeries = new HashMap<>();
+            for (DynamicRealmObject row : realm.where("StepSeriesModel").findAll().createSnapshot()) {
+                int day = toEpochDay(row.getLong("day"), zone);
+                if (keptSeries.containsKey(day)) {
+                    row.deleteFromRealm();
+                    continue;
+                }
+                row.setInt("epochDay", day);
+                keptSeries.put(day, row);
+            }
+            series.removeField("day")
+                    .renameField("epochDay", "day")
+                    .addPrimaryKey("day");
+            oldVersion++;
+        }
+
+        // 2 -> 3: weekly, monthly and yearly totals, filled from the days
+        if (oldVersion == 2) {
+            schema.create("StepAggregate")
+                    .addField("key", long.class, FieldAttribute.PRIMARY_KEY)
+                    .addField("kind", int.class)
+                    .addField("period", int.class)
+                    .addField("totalSteps", long.class)
+                    .addField("days", int.class)
+                    .addField("maxSteps", long.class);
+            Map<Long, StepTotals> totals = new HashMap<>();
+            for (DynamicRealmObject row : realm.where("StepModel").findAll())
+                StepTotals.accumulate(totals, row.getInt("day"), row.getLong("numSteps"));
+            for (Map.Entry<Long, StepTotals> entry : totals.entrySet()) {
+                long key = entry.getKey();
+                StepTotals t = entry.getValue();
+                DynamicRealmObject aggregate = realm.createObject("StepAggregate", key);
+                aggregate.setInt("kind", (int) (key >>> 32));
+                aggregate.setInt("period", (int) key);
+                aggregate.setLong("totalSteps", t.getTotalSteps());
+                aggregate.setInt("days", t.getDays());
+                aggregate.setLong("maxSteps", t.getMaxSteps());
+            }
+            oldVersion++;
+        }
+
+        // 3 -> 4: the journal record each day's buckets are saved up to; 0
+        // replays the whole journal into them, as before
+        if (oldVersion == 3) {
+            schema.get("StepSeriesModel")
+                    .addField("journalSeq", long.class);
+            oldVersion++;
+        }
+    }
+
+    /**
+     * Days used to be stored as local midnight of whatever zone the phone was
+     * in at the time. Rounding rather than truncating maps a midnight from any
+     * zone within 12 hours of the current one to its own calendar day.
+     */
+    static int toEpochDay(long midnight, TimeZone zone) {
+        return (int) Math.round((midnight + zone.getOffset(midnight)) / (double) DAY);
+    }
+
+    @Override
+    public int hashCode() {
+        return StepMigration.class.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof StepMigration;
+    }
+}
@@ -1,22 +1,23 @@
 package cn.ikaze.healthgo.model;
 
-import java.util.Date;
-
 import io.realm.RealmObject;
-import io.realm.annotations.Index;
+import io.realm.annotations.PrimaryKey;
 
 
+/**
+ * Steps of one local day, keyed by {@link cn.ikaze.healthgo.DateTimeHelper#toEpochDay(long)}.
+ */
 public class StepModel extends RealmObject {
-    @Index
-    private Date date;
+    @PrimaryKey
+    private int day;
     private long numSteps;
 
-    public Date getDate() {
-        return date;
+    public int getDay() {
+        return day;
     }
 
-    public void setDate(Date date) {
-        this.date = date;
+    public void setDay(int day) {
+        this.day = day;
     }
 
     public long getNumSteps() {
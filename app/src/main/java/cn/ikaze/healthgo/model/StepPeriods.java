@@ -0,0 +1,85 @@
+package cn.ikaze.healthgo.model;
+
+
+/**
+ * Weeks, months and years as numbers, derived from the epoch day alone so
+ * they do not depend on the time zone. Weeks start on Monday and are counted
+ * from the one containing 1970-01-01; months are year * 12 + month - 1.
+ */
+public class StepPeriods {
+
+    public static final int WEEK = 0;
+    public static final int MONTH = 1;
+    public static final int YEAR = 2;
+    public static final int KINDS = 3;
+
+    // 1970-01-01 was a Thursday, three days after the week started
+    private static final int WEEK_OFFSET = 3;
+
+    public static int period(int kind, int day) {
+        switch (kind) {
+            case WEEK:
+                return floorDiv(day + WEEK_OFFSET, 7);
+            case MONTH:
+                return yearMonth(day);
+            case YEAR:
+                return floorDiv(yearMonth(day), 12);
+            default:
+                throw new IllegalArgumentException("kind " + kind);
+        }
+    }
+
+    public static int firstDay(int kind, int period) {
+        switch (kind) {
+            case WEEK:
+                return period * 7 - WEEK_OFFSET;
+            case MONTH:
+                return fromCivil(floorDiv(period, 12), period - floorDiv(period, 12) * 12 + 1, 1);
+            case YEAR:
+                return fromCivil(period, 1, 1);
+            default:
+                throw new IllegalArgumentException("kind " + kind);
+        }
+    }
+
+    public static int lastDay(int kind, int period) {
+        return firstDay(kind, period + 1) - 1;
+    }
+
+    /**
+     * @return the primary key of a period's aggregate
+     */
+    public static long key(int kind, int period) {
+        return ((long) kind << 32) | (period & 0xffffffffL);
+    }
+
+    /**
+     * @return year * 12 + month - 1 of an epoch day
+     */
+    static int yearMonth(int day) {
+        // Days to civil date, in 400-year eras starting on March 1st
+        int z = day + 719468;
+        int era = floorDiv(z, 146097);
+        int doe = z - era * 146097;
+        int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        int mp = (5 * doy + 2) / 153;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        int year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+        return year * 12 + month - 1;
+    }
+
+    static int fromCivil(int year, int month, int dayOfMonth) {
+        year -= month <= 2 ? 1 : 0;
+        int era = floorDiv(year, 400);
+        int yoe = year - era * 400;
+        int doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + dayOfMonth - 1;
+        int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097 + doe - 719468;
+    }
+
+    private static int floorDiv(int a, int b) {
+        int q = a / b;
+        return (a % b != 0 && (a < 0) != (b < 0)) ? q - 1 : q;
+    }
+}
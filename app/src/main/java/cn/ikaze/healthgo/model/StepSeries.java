@@ -0,0 +1,103 @@
+package cn.ikaze.healthgo.model;
+
+import java.util.TimeZone;
+
+
+/**
+ * Step counts of one day in fixed-size buckets of wall-clock time, e.g. one
+ * per minute. Buckets follow the clock face, so on a daylight saving day the
+ * repeated hour folds into the same buckets and the skipped one stays empty.
+ */
+public class StepSeries {
+
+    private static final long MINUTE = 60000;
+    private static final long DAY = 86400000L;
+
+    private final int day;
+    private final int bucketMinutes;
+    private final int[] buckets;
+    private final TimeZone timeZone;
+    // Midnight of the day on the local clock face
+    private final long localStart;
+    // First StepJournal record the buckets do not include
+    private long journalSeq;
+
+    /**
+     * @param day           epoch day, see {@link cn.ikaze.healthgo.DateTimeHelper#toEpochDay(long)}
+     * @param bucketMinutes a divisor of the 1440 minutes of a day
+     */
+    public StepSeries(int day, int bucketMinutes, TimeZone timeZone) {
+        if (!isValidBucketMinutes(bucketMinutes))
+            throw new IllegalArgumentException("bucket minutes must divide a day: " + bucketMinutes);
+        this.day = day;
+        this.bucketMinutes = bucketMinutes;
+        this.buckets = new int[bucketsPerDay(bucketMinutes)];
+        this.timeZone = timeZone;
+        this.localStart = day * DAY;
+    }
+
+    public static boolean isValidBucketMinutes(int bucketMinutes) {
+        return bucketMinutes > 0 && 24 * 60 % bucketMinutes == 0;
+    }
+
+    public static int bucketsPerDay(int bucketMinutes) {
+        return (24 * 60 + bucketMinutes - 1) / bucketMinutes;
+    }
+
+    public void add(long time, int steps) {
+        long minute = (time + timeZone.getOffset(time) - localStart) / MINUTE;
+        int i = (int) (minute / bucketMinutes);
+        if (i < 0)
+            i = 0;
+        else if (i >= buckets.length)
+            i = buckets.length - 1;
+        buckets[i] += steps;
+    }
+
+    /**
+     * Adds the buckets of another series of the same size.
+     */
+    public void addAll(StepSeries other) {
+        for (int i = 0; i < buckets.length; i++)
+            buckets[i] += other.buckets[i];
+    }
+
+    public void load(byte[] data) {
+        BucketCodec.decodeInto(data, buckets, 0);
+    }
+
+    public byte[] encode() {
+        return BucketCodec.encode(buckets, buckets.length);
+    }
+
+    public long total() {
+        long sum = 0;
+        for (int b : buckets)
+            sum += b;
+        return sum;
+    }
+
+    public int getDay() {
+        return day;
+    }
+
+    public int getBucketMinutes() {
+        return bucketMinutes;
+    }
+
+    /**
+     * @return sequence number of the first journal record not yet counted in
+     * the buckets, see {@link JournalRecovery}
+     */
+    public long getJournalSeq() {
+        return journalSeq;
+    }
+
+    public void setJournalSeq(long journalSeq) {
+        this.journalSeq = journalSeq;
+    }
+
+    public int[] getBuckets() {
+        return buckets;
+    }
+}
@@ -0,0 +1,50 @@
+package cn.ikaze.healthgo.model;
+
+import io.realm.RealmObject;
+import io.realm.annotations.PrimaryKey;
+
+
+/**
+ * One day of bucketed step counts, encoded with {@link BucketCodec}, keyed
+ * by epoch day like {@link StepModel}.
+ */
+public class StepSeriesModel extends RealmObject {
+    @PrimaryKey
+    private int day;
+    private int bucketMinutes;
+    private byte[] buckets;
+    // First StepJournal record the buckets do not include
+    private long journalSeq;
+
+    public int getDay() {
+        return day;
+    }
+
+    public void setDay(int day) {
+        this.day = day;
+    }
+
+    public int getBucketMinutes() {
+        return bucketMinutes;
+    }
+
+    public void setBucketMinutes(int bucketMinutes) {
+        this.bucketMinutes = bucketMinutes;
+    }
+
+    public byte[] getBuckets() {
+        return buckets;
+    }
+
+    public void setBuckets(byte[] buckets) {
+        this.buckets = buckets;
+    }
+
+    public long getJournalSeq() {
+        return journalSeq;
+    }
+
+    public void setJournalSeq(long journalSeq) {
+        this.journalSeq = journalSeq;
+    }
+}
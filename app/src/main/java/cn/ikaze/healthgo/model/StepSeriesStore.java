@@ -0,0 +1,73 @@
+package cn.ikaze.healthgo.model;
+
+import java.util.TimeZone;
+
+import io.realm.Realm;
+import io.realm.RealmResults;
+
+
+/**
+ * Queries over {@link StepSeriesModel}: per-bucket history as primitive
+ * arrays. A day's buckets are saved along with its {@link StepModel}; journal
+ * replay rolls recovered buckets up into the daily count, see
+ * {@link JournalRecovery#getTotal(int)}.
+ */
+public class StepSeriesStore {
+
+    /**
+     * Loads the stored buckets of a day, re-bucketed if they were recorded at
+     * a different bucket size.
+     */
+    public static StepSeries load(Realm realm, int day, int bucketMinutes, TimeZone timeZone) {
+        StepSeries series = new StepSeries(day, bucketMinutes, timeZone);
+        StepSeriesModel stored = realm.where(StepSeriesModel.class).equalTo("day", day).findFirst();
+        if (stored != null) {
+            fold(stored, series.getBuckets(), 0, bucketMinutes);
+            series.setJournalSeq(stored.getJournalSeq());
+        }
+        return series;
+    }
+
+    /**
+     * @return the highest journal sequence number any day's buckets include
+     * up to, 0 if none
+     */
+    public static long lastJournalSeq(Realm realm) {
+        Number last = realm.where(StepSeriesModel.class).max("journalSeq");
+        return last == null ? 0 : last.longValue();
+    }
+
+    /**
+     * Step counts for consecutive days starting at fromDay, one block of
+     * {@link StepSeries#bucketsPerDay(int)} buckets per day, in one range query.
+     *
+     * @param fromDay epoch day of the first day
+     */
+    public static int[] query(Realm realm, int fromDay, int days, int bucketMinutes) {
+        int perDay = StepSeries.bucketsPerDay(bucketMinutes);
+        int[] out = new int[days * perDay];
+        RealmResults<StepSeriesModel> rows = realm.where(StepSeriesModel.class)
+                .between("day", fromDay, fromDay + days - 1)
+                .findAll();
+        for (StepSeriesModel row : rows) {
+            int index = row.getDay() - fromDay;
+            fold(row, out, index * perDay, bucketMinutes);
+        }
+        return out;
+    }
+
+    private static void fold(StepSeriesModel row, int[] out, int offset, int bucketMinutes) {
+        int stored = row.getBucketMinutes();
+        if (stored == bucketMinutes) {
+            BucketCodec.decodeInto(row.getBuckets(), out, offset);
+            return;
+        }
+        int[] buckets = new int[StepSeries.bucketsPerDay(stored)];
+        BucketCodec.decodeInto(row.getBuckets(), buckets, 0);
+        int perDay = StepSeries.bucketsPerDay(bucketMinutes);
+        for (int i = 0; i < buckets.length; i++) {
+            int target = Math.min(perDay - 1, i * stored / bucketMinutes);
+            out[offset + target] += buckets[i];
+        }
+    }
+}
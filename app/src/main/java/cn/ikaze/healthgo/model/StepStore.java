@@ -0,0 +1,122 @@
+package cn.ikaze.healthgo.model;
+
+import android.util.Log;
+
+import java.util.Arrays;
+
+import io.realm.Realm;
+
+
+/**
+ * Writes the step service's counts through one long-lived Realm instance.
+ * The managed {@link StepModel}, {@link StepSeriesModel} and weekly, monthly
+ * and yearly {@link StepAggregate}s of the current day are kept between
+ * writes, so a steady-state write is field updates in a transaction; only a
+ * new day costs lookups.
+ * <p>
+ * Realm instances are confined to their thread: create, use and close a
+ * store on the same looper.
+ */
+public class StepStore {
+
+    // Log latency every this many writes
+    private static final int REPORT_EVERY = 50;
+
+    private final boolean cached;
+    private final TransactionStats stats;
+    private Realm realm;
+    private int currentDay;
+    private StepModel model;
+    private StepSeriesModel series;
+    // Week, month and year of currentDay
+    private final StepAggregate[] aggregates = new StepAggregate[StepPeriods.KINDS];
+
+    /**
+     * @param cached false opens a Realm and looks the day up on every write,
+     *               as the service used to, so both can be measured
+     */
+    public StepStore(boolean cached) {
+        this.cached = cached;
+        this.stats = new TransactionStats(cached ? "cached realm" : "realm per write");
+    }
+
+    /**
+     * @param buckets    encoded buckets of the same day, or null
+     * @param journalSeq first journal record the buckets do not include
+     */
+    public void write(int day, long num, byte[] buckets, int bucketMinutes, long journalSeq) {
+        long start = System.nanoTime();
+        if (cached)
+            writeCached(day, num, buckets, bucketMinutes, journalSeq);
+        else
+            writeOnce(day, num, buckets, bucketMinutes, journalSeq);
+        stats.record(System.nanoTime() - start);
+        if (stats.getCount() % REPORT_EVERY == 0)
+            Log.d("realm", stats.toString());
+    }
+
+    private void writeCached(int day, long num, byte[] buckets, int bucketMinutes, long journalSeq) {
+        if (realm == null)
+            realm = Realm.getDefaultInstance();
+        realm.beginTransaction();
+        try {
+            boolean existed = true;
+            if (day != currentDay || model == null || !model.isValid()) {
+                model = realm.where(StepModel.class).equalTo("day", day).findFirst();
+                if (model == null) {
+                    model = realm.createObject(StepModel.class, day);
+                    existed = false;
+                }
+                series = null;
+                Arrays.fill(aggregates, null);
+                currentDay = day;
+            }
+            long before = model.getNumSteps();
+            model.setNumSteps(num);
+            StepAggregates.update(realm, aggregates, day, existed, before, num);
+            if (buckets != null) {
+                if (series == null || !series.isValid()) {
+                    series = realm.where(StepSeriesModel.class).equalTo("day", day).findFirst();
+                    if (series == null)
+                        series = realm.createObject(StepSeriesModel.class, day);
+                }
+                series.setBucketMinutes(bucketMinutes);
+                series.setBuckets(buckets);
+                series.setJournalSeq(journalSeq);
+            }
+            realm.commitTransaction();
+        } catch (RuntimeException e) {
+            realm.cancelTransaction();
+            model = null;
+            series = null;
+            Arrays.fill(aggregates, null);
+            throw e;
+        }
+    }
+
+    private void writeOnce(int day, long num, byte[] buckets, int bucketMinutes, long journalSeq) {
+        Realm realm = Realm.getDefaultInstance();
+        try {
+            realm.executeTransaction(new StepTransaction(day, num));
+            if (buckets != null)
+                realm.executeTransaction(new SeriesTransaction(day, bucketMinutes, buckets, journalSeq));
+        } finally {
+            realm.close();
+        }
+    }
+
+    public TransactionStats getStats() {
+        return stats;
+    }
+
+    public void close() {
+        Log.d("realm", stats.toString());
+        model = null;
+        series = null;
+        Arrays.fill(aggregates, null);
+        if (realm != null) {
+            realm.close();
+            realm = null;
+        }
+    }
+}
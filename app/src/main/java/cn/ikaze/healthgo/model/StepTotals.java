@@ -0,0 +1,129 @@
+package cn.ikaze.healthgo.model;
+
+import java.util.Map;
+
+
+/**
+ * Sum, number of days and best day of one week, month or year, with the
+ * arithmetic to keep them current as single days change.
+ */
+public class StepTotals {
+
+    /**
+     * The stored days, for when the best day of a period has to be found again.
+     */
+    public interface Days {
+        long maxSteps(int firstDay, int lastDay);
+    }
+
+    private long totalSteps;
+    private int days;
+    private long maxSteps;
+
+    public StepTotals() {
+    }
+
+    public StepTotals(long totalSteps, int days, long maxSteps) {
+        this.totalSteps = totalSteps;
+        this.days = days;
+        this.maxSteps = maxSteps;
+    }
+
+    public void add(long steps) {
+        totalSteps += steps;
+        days++;
+        maxSteps = Math.max(maxSteps, steps);
+    }
+
+    /**
+     * A day of the period went from before to after steps.
+     *
+     * @param existed false if the day had no record yet
+     * @return false if the best day may have gone down, so the maximum has
+     * to be found again from the days and set with {@link #setMaxSteps(long)}
+     */
+    public boolean change(boolean existed, long before, long after) {
+        if (!existed) {
+            add(after);
+            return true;
+        }
+        totalSteps += after - before;
+        if (after >= maxSteps) {
+            maxSteps = after;
+            return true;
+        }
+        return before < maxSteps;
+    }
+
+    /**
+     * Applies a change of one day to the totals of its week, month and year.
+     *
+     * @param totals  the day's periods, indexed by kind; updated in place
+     * @param existed false if the day had no record yet
+     * @param days    the days as they are after the change
+     */
+    public static void update(StepTotals[] totals, int day, boolean existed, long before, long after,
+                              Days days) {
+        for (int kind = 0; kind < StepPeriods.KINDS; kind++) {
+            if (!totals[kind].change(existed, before, after)) {
+                int period = StepPeriods.period(kind, day);
+                totals[kind].setMaxSteps(days.maxSteps(StepPeriods.firstDay(kind, period),
+                        StepPeriods.lastDay(kind, period)));
+            }
+        }
+    }
+
+    /**
+     * Adds a day to the totals of its week, month and year, keyed by
+     * {@link StepPeriods#key(int, int)}.
+     */
+    public static void accumulate(Map<Long, StepTotals> totals, int day, long steps) {
+        for (int kind = 0; kind < StepPeriods.KINDS; kind++) {
+            long key = StepPeriods.key(kind, StepPeriods.period(kind, day));
+            StepTotals t = totals.get(key);
+            if (t == null) {
+                t = new StepTotals();
+                totals.put(key, t);
+            }
+            t.add(steps);
+        }
+    }
+
+    public long getTotalSteps() {
+        return totalSteps;
+    }
+
+    public int getDays() {
+        return days;
+    }
+
+    public long getMaxSteps() {
+        return maxSteps;
+    }
+
+    public void setMaxSteps(long maxSteps) {
+        this.maxSteps = maxSteps;
+    }
+
+    public double getAverage() {
+        return days == 0 ? 0 : (double) totalSteps / days;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof StepTotals))
+            return false;
+        StepTotals t = (StepTotals) o;
+        return totalSteps == t.totalSteps && days == t.days && maxSteps == t.maxSteps;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (totalSteps * 31 + days) * 31 + (int) maxSteps;
+    }
+
+    @Override
+    public String toString() {
+        return totalSteps + " steps in " + days + " days, best " + maxSteps;
+    }
+}
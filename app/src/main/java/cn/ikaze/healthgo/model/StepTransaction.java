@@ -2,31 +2,31 @@ package cn.ikaze.healthgo.model;
 
 import android.util.Log;
 
-import java.util.Date;
-
 import io.realm.Realm;
 
 
 
 public class StepTransaction implements Realm.Transaction {
 
-    private Date date;
+    private int day;
     private long num;
 
-    public StepTransaction(Date date, long num) {
-        this.date = date;
+    public StepTransaction(int day, long num) {
+        this.day = day;
         this.num = num;
     }
 
     @Override
     public void execute(Realm realm) {
-        Log.d("realm", "now insert [" + date + " ," + num + "]");
+        Log.d("realm", "now insert [" + day + " ," + num + "]");
 
-        StepModel stepModel =realm.where(StepModel.class).equalTo("date",date).findFirst();
+        StepModel stepModel =realm.where(StepModel.class).equalTo("day",day).findFirst();
 
+        boolean existed = stepModel != null;
         if (stepModel == null)
-            stepModel = realm.createObject(StepModel.class);
-        stepModel.setDate(date);
+            stepModel = realm.createObject(StepModel.class, day);
+        long before = stepModel.getNumSteps();
         stepModel.setNumSteps(num);
+        StepAggregates.update(realm, day, existed, before, num);
     }
 }
@@ -0,0 +1,44 @@
+package cn.ikaze.healthgo.model;
+
+import java.util.Locale;
+
+
+/**
+ * Latency of Realm write transactions, as count, mean and worst case.
+ */
+public class TransactionStats {
+
+    private final String name;
+    private long count;
+    private long totalNanos;
+    private long maxNanos;
+
+    public TransactionStats(String name) {
+        this.name = name;
+    }
+
+    public void record(long nanos) {
+        count++;
+        totalNanos += nanos;
+        if (nanos > maxNanos)
+            maxNanos = nanos;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMeanNanos() {
+        return count == 0 ? 0 : totalNanos / count;
+    }
+
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%s: %d transactions, mean %.2f ms, max %.2f ms",
+                name, count, getMeanNanos() / 1e6, maxNanos / 1e6);
+    }
+}
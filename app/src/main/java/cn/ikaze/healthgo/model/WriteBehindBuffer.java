@@ -0,0 +1,125 @@
+package cn.ikaze.healthgo.model;
+
+
+/**
+ * Coalesces step count updates in memory and writes them out through a
+ * {@link Sink} only when enough steps or enough time have accumulated, so a
+ * day of walking costs a handful of transactions instead of one per few steps.
+ * <p>
+ * Not thread safe; the owner calls it from a single thread.
+ */
+public class WriteBehindBuffer {
+
+    public interface Sink {
+        void write(int day, long num);
+    }
+
+    private final Sink sink;
+    private final long maxDelay;
+    private final long maxPendingSteps;
+
+    private static final int NO_DAY = Integer.MIN_VALUE;
+
+    private int pendingDay = NO_DAY;
+    private long pendingNum;
+    // When the oldest unwritten update arrived
+    private long pendingSince;
+    private boolean dirty;
+
+    private int savedDay = NO_DAY;
+    private long savedNum;
+
+    private long flushCount;
+
+    /**
+     * @param maxDelay        longest time an update may stay unwritten, in the
+     *                        units of the clock passed to {@link #update}
+     * @param maxPendingSteps write once this many steps are unwritten
+     */
+    public WriteBehindBuffer(Sink sink, long maxDelay, long maxPendingSteps) {
+        this.sink = sink;
+        this.maxDelay = maxDelay;
+        this.maxPendingSteps = maxPendingSteps;
+    }
+
+    /**
+     * Records a count that is already persisted, e.g. loaded at start-up.
+     */
+    public void restore(int day, long num) {
+        savedDay = day;
+        savedNum = num;
+        pendingDay = day;
+        pendingNum = num;
+        dirty = false;
+    }
+
+    /**
+     * Buffers the latest total for a day. A new day writes out the previous
+     * day first.
+     *
+     * @return true if this update caused a write
+     */
+    public boolean update(int day, long num, long now) {
+        if (dirty && day != pendingDay)
+            flush();
+        if (!dirty) {
+            if (day == savedDay && num == savedNum)
+                return false;
+            pendingSince = now;
+            dirty = true;
+        }
+        pendingDay = day;
+        pendingNum = num;
+
+        long base = day == savedDay ? savedNum : 0;
+        if (pendingNum - base >= maxPendingSteps) {
+            flush();
+            return true;
+        }
+        return flushIfDue(now);
+    }
+
+    /**
+     * Writes out the buffered count if it has waited for maxDelay.
+     *
+     * @return true if a write happened
+     */
+    public boolean flushIfDue(long now) {
+        if (dirty && now - pendingSince >= maxDelay) {
+            flush();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Writes out the buffered count, if any.
+     */
+    public void flush() {
+        if (!dirty)
+            return;
+        dirty = false;
+        savedDay = pendingDay;
+        savedNum = pendingNum;
+        flushCount++;
+        sink.write(pendingDay, pendingNum);
+    }
+
+    /**
+     * @return when the buffered count becomes due, or -1 if nothing is buffered
+     */
+    public long getDeadline() {
+        return dirty ? pendingSince + maxDelay : -1;
+    }
+
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * @return number of writes issued since creation
+     */
+    public long getFlushCount() {
+        return flushCount;
+    }
+}
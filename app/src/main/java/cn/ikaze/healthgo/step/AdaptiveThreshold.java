@@ -0,0 +1,94 @@
+package cn.ikaze.healthgo.step;
+
+
+/**
+ * Step threshold that follows the amplitude of recent steps, either as the
+ * mean of the last N amplitudes or as an exponential moving average. Both
+ * cost O(1) per update whatever the window, and nothing is allocated after
+ * construction, so long windows for slow walkers are as cheap as short ones.
+ */
+public class AdaptiveThreshold {
+
+    public static final int DEFAULT_WINDOW = 4;
+
+    private final float initial;
+    // Mean over a ring of the last window amplitudes
+    private final float[] window;
+    private int pos;
+    // Slots written since the last reset; the others still hold initial
+    private int filled;
+    // Kept in double so adding and removing values does not drift
+    private double sum;
+    // Weight of each new amplitude in the moving average, 0 for the window mean
+    private final float decay;
+    private float average;
+
+    private AdaptiveThreshold(float initial, int window, float decay) {
+        this.initial = initial;
+        this.window = new float[window];
+        this.decay = decay;
+        reset();
+    }
+
+    /**
+     * Mean of the last size amplitudes.
+     */
+    public static AdaptiveThreshold windowed(int size, float initial) {
+        if (size < 1)
+            throw new IllegalArgumentException("window must be at least 1: " + size);
+        return new AdaptiveThreshold(initial, size, 0);
+    }
+
+    /**
+     * Exponential moving average; each amplitude moves the threshold by decay
+     * of the difference. A decay of 2 / (N + 1) weighs about like a window of N.
+     */
+    public static AdaptiveThreshold exponential(float decay, float initial) {
+        if (!(decay > 0 && decay <= 1))
+            throw new IllegalArgumentException("decay must be in (0, 1]: " + decay);
+        return new AdaptiveThreshold(initial, 0, decay);
+    }
+
+    public void add(float amplitude) {
+        if (decay > 0) {
+            average += decay * (amplitude - average);
+            return;
+        }
+        // Slots fill in order from a reset, so pos is unwritten until all are
+        float old;
+        if (filled < window.length) {
+            old = initial;
+            filled++;
+        } else {
+            old = window[pos];
+        }
+        sum += amplitude - old;
+        window[pos] = amplitude;
+        if (++pos == window.length)
+            pos = 0;
+        average = (float) (sum / window.length);
+    }
+
+    public float get() {
+        return average;
+    }
+
+    /**
+     * Forgets every amplitude and starts over from the initial threshold.
+     * O(1): slots are overwritten as amplitudes arrive, not cleared here.
+     */
+    public void reset() {
+        pos = 0;
+        filled = 0;
+        sum = (double) initial * window.length;
+        average = initial;
+    }
+
+    public int getWindow() {
+        return window.length;
+    }
+
+    public float getDecay() {
+        return decay;
+    }
+}
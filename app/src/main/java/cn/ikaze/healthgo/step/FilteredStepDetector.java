@@ -0,0 +1,95 @@
+package cn.ikaze.healthgo.step;
+
+import android.util.Log;
+
+
+/**
+ * Step engine that runs every sample through a {@link StepFilter} instead of
+ * decimating the raw magnitude to one sample per 100 ms. A step is counted
+ * each time the filtered signal climbs through +h after having dropped
+ * below -h, with h following the amplitude of recent steps, so noise on the
+ * magnitude no longer trips the min/max resets.
+ * <p>
+ * Counting modes and the adaptive threshold are those of {@link StepDetector}.
+ * <p>
+ * On the synthetic walks of StepEnginesBenchmark at 50 Hz, this engine is
+ * within 0.1% from 0.8 to 2.5 steps a second, the peak detector off by +8%
+ * to -81%. At the 5 Hz (SENSOR_DELAY_NORMAL) rate StepThread registers at,
+ * it is within 2.4% up to 1.8 steps a second, the peak detector off by +21%,
+ * +50% and -25% at 0.8, 1.2 and 1.8. Both miss 2.5 steps a second entirely:
+ * it is the Nyquist frequency of that rate.
+ */
+public class FilteredStepDetector extends StepDetector {
+
+    // Fastest cadence counted, four steps a second
+    private static final long MIN_STEP_NS = 250 * 1000000L;
+    // No step for this long means standing still
+    private static final long MAX_STEP_NS = 2000 * 1000000L;
+    // Smallest hysteresis, in m/s^2
+    private static final float MIN_HYSTERESIS = 0.4f;
+    // Hysteresis as a share of the recent peak-to-trough amplitude
+    private static final float HYSTERESIS_SHARE = 0.25f;
+
+    private final StepFilter filter = new StepFilter();
+    // Dropped below -h since the last step
+    private boolean armed;
+    // Extremes since the last step
+    private float high;
+    private float low;
+    private long lastStep;
+
+    public FilteredStepDetector(StepListener stepListener) {
+        super(stepListener);
+    }
+
+    @Override
+    public void updateStep(float x, float y, float z, long timestamp) {
+        filterSample(x, y, z, timestamp);
+    }
+
+    @Override
+    public void updateSteps(float[] values, long[] timestamps, int count) {
+        for (int i = 0; i < count; i++)
+            filterSample(values[i * 3], values[i * 3 + 1], values[i * 3 + 2], timestamps[i]);
+    }
+
+    /**
+     * The per-sample hot path; must not allocate.
+     */
+    private void filterSample(float x, float y, float z, long timestamp) {
+        float a = filter.filter(x, y, z, timestamp);
+        if (Float.isNaN(a)) {
+            // Measuring the rate, after start-up or a gap
+            armed = false;
+            high = low = 0;
+            lastStep = timestamp;
+            return;
+        }
+        if (a > high)
+            high = a;
+        if (a < low)
+            low = a;
+
+        float h = Math.max(MIN_HYSTERESIS, HYSTERESIS_SHARE * getVEL_THRESHOLD());
+        if (!armed) {
+            if (a < -h)
+                armed = true;
+        } else if (a > h) {
+            if (timestamp - lastStep >= MIN_STEP_NS) {
+                realSteps(1);
+                updateVEL_THRESHOLD(high - low);
+                lastStep = timestamp;
+            }
+            armed = false;
+            high = low = a;
+        }
+
+        if (timestamp - lastStep > MAX_STEP_NS) {
+            if (logEnabled)
+                Log.d("step", "no step for " + MAX_STEP_NS / 1000000 + " ms");
+            // Not initStepDetector(), which only resets on every third call
+            resetStepDetector();
+            lastStep = timestamp;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package cn.ikaze.healthgo.step;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Lock-free single-producer/single-consumer queue of accelerometer samples.
+ * The sensor thread offers samples and the detector thread drains them; the
+ * storage is preallocated, so neither side allocates.
+ */
+public class SampleRingBuffer {
+
+    private final int capacity;
+    private final int mask;
+    private final float[] values;
+    private final long[] timestamps;
+    // Next slot to read, only advanced by the consumer
+    private final AtomicLong head = new AtomicLong();
+    // Next slot to write, only advanced by the producer
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long dropped;
+
+    /**
+     * @param capacity number of samples, rounded up to a power of two
+     */
+    public SampleRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.capacity = size;
+        this.mask = size - 1;
+        this.values = new float[size * 3];
+        this.timestamps = new long[size];
+    }
+
+    /**
+     * Producer side. A full buffer drops the sample rather than blocking the
+     * sensor thread.
+     *
+     * @return false if the sample was dropped
+     */
+    public boolean offer(float x, float y, float z, long timestamp) {
+        long t = tail.get();
+        if (t - head.get() == capacity) {
+            dropped++;
+            return false;
+        }
+        int i = (int) t & mask;
+        values[i * 3] = x;
+        values[i * 3 + 1] = y;
+        values[i * 3 + 2] = z;
+        timestamps[i] = timestamp;
+        // Publish the slot only after it is written
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    /**
+     * Consumer side. Copies up to max samples into the given arrays, packed as
+     * {@link StepDetector#updateSteps} expects.
+     *
+     * @return number of samples copied
+     */
+    public int drainTo(float[] outValues, long[] outTimestamps, int max) {
+        long h = head.get();
+        int count = (int) Math.min(max, tail.get() - h);
+        for (int n = 0; n < count; n++) {
+            int i = (int) (h + n) & mask;
+            outValues[n * 3] = values[i * 3];
+            outValues[n * 3 + 1] = values[i * 3 + 1];
+            outValues[n * 3 + 2] = values[i * 3 + 2];
+            outTimestamps[n] = timestamps[i];
+        }
+        // Hand the slots back to the producer only after they are read
+        head.lazySet(h + count);
+        return count;
+    }
+
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public long getDropped() {
+        return dropped;
+    }
+}
@@ -0,0 +1,106 @@
+package cn.ikaze.healthgo.step;
+
+import java.util.Locale;
+
+
+/**
+ * Decides how hard the accelerometer has to work. After lowAfter without a
+ * step the service drops to a low sampling rate, and after triggerAfter it
+ * stops sampling and waits for the significant motion sensor, if there is
+ * one. The first motion seen in either state goes straight back to full rate.
+ * <p>
+ * Pure state machine on a caller-supplied clock, which should keep running
+ * in deep sleep (elapsedRealtime); it also adds up the time spent in each
+ * state.
+ */
+public class SamplingScheduler {
+
+    public static final int FULL = 0;
+    public static final int LOW = 1;
+    public static final int TRIGGER = 2;
+
+    private static final String[] NAMES = {"full", "low", "trigger"};
+
+    private final long lowAfter;
+    private final long triggerAfter;
+    private final boolean hasTrigger;
+
+    private int state = FULL;
+    private long stateSince;
+    private long lastActivity;
+    private final long[] timeIn = new long[3];
+    private final int[] entries = new int[3];
+
+    /**
+     * @param lowAfter     idle time before dropping to the low rate
+     * @param triggerAfter idle time before waiting for significant motion
+     * @param hasTrigger   whether the device has a significant motion sensor
+     */
+    public SamplingScheduler(long lowAfter, long triggerAfter, boolean hasTrigger, long now) {
+        this.lowAfter = lowAfter;
+        this.triggerAfter = Math.max(lowAfter, triggerAfter);
+        this.hasTrigger = hasTrigger;
+        stateSince = now;
+        lastActivity = now;
+        entries[FULL] = 1;
+    }
+
+    /**
+     * A step was counted, or motion was seen while idle.
+     *
+     * @return true if the state changed, i.e. sensors must be re-registered
+     */
+    public boolean onActivity(long now) {
+        lastActivity = now;
+        return enter(FULL, now);
+    }
+
+    /**
+     * Moves to a lower state once the device has been idle long enough.
+     *
+     * @return true if the state changed
+     */
+    public boolean update(long now) {
+        long idle = now - lastActivity;
+        int target = state;
+        if (hasTrigger && idle >= triggerAfter)
+            target = TRIGGER;
+        else if (idle >= lowAfter)
+            target = LOW;
+        return target > state && enter(target, now);
+    }
+
+    private boolean enter(int next, long now) {
+        if (next == state)
+            return false;
+        timeIn[state] += now - stateSince;
+        state = next;
+        stateSince = now;
+        entries[next]++;
+        return true;
+    }
+
+    public int getState() {
+        return state;
+    }
+
+    /**
+     * @return total time spent in a state, including the current stay
+     */
+    public long getTimeIn(int which, long now) {
+        return timeIn[which] + (which == state ? now - stateSince : 0);
+    }
+
+    public int getEntries(int which) {
+        return entries[which];
+    }
+
+    public String report(long now) {
+        StringBuilder sb = new StringBuilder("sampling");
+        for (int i = 0; i < NAMES.length; i++) {
+            sb.append(String.format(Locale.US, " %s %d min (%dx)", NAMES[i],
+                    getTimeIn(i, now) / 60000, entries[i]));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,140 @@
+package cn.ikaze.healthgo.step;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+/**
+ * In-process channel between the step thread and the UI. Counts are plain
+ * longs; each subscriber gets them on its own executor (the main thread for
+ * an activity) and, if it falls behind, only the latest one. Publishing
+ * allocates nothing.
+ * <p>
+ * The other direction carries whether the count is on screen, so the step
+ * thread can switch between live and batched sampling.
+ */
+public class StepChannel {
+
+    public interface Listener {
+        void onSteps(long steps);
+    }
+
+    public interface VisibilityListener {
+        void onVisibilityChanged(boolean visible);
+    }
+
+    private static final StepChannel INSTANCE = new StepChannel();
+
+    private static final Subscription[] NONE = new Subscription[0];
+
+    // Copied on change, so publish iterates without a lock or an iterator
+    private volatile Subscription[] subscriptions = NONE;
+    private volatile long latest;
+    private volatile VisibilityListener visibilityListener;
+
+    public static StepChannel get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Delivers the latest count on the executor, once for any number of
+     * publishes that happen before it runs. Counts published earlier are
+     * not replayed; they may be from a run that has since stopped.
+     */
+    public Subscription subscribe(Listener listener, Executor executor) {
+        Subscription subscription = new Subscription(listener, executor);
+        synchronized (this) {
+            Subscription[] old = subscriptions;
+            Subscription[] next = new Subscription[old.length + 1];
+            System.arraycopy(old, 0, next, 0, old.length);
+            next[old.length] = subscription;
+            subscriptions = next;
+        }
+        return subscription;
+    }
+
+    private synchronized void remove(Subscription subscription) {
+        Subscription[] old = subscriptions;
+        for (int i = 0; i < old.length; i++) {
+            if (old[i] == subscription) {
+                Subscription[] next = new Subscription[old.length - 1];
+                System.arraycopy(old, 0, next, 0, i);
+                System.arraycopy(old, i + 1, next, i, old.length - i - 1);
+                subscriptions = next;
+                return;
+            }
+        }
+    }
+
+    public void publish(long steps) {
+        latest = steps;
+        Subscription[] current = subscriptions;
+        for (int i = 0; i < current.length; i++)
+            current[i].schedule();
+    }
+
+    /**
+     * Synchronized with {@link #removeVisibilityListener} so a stopping
+     * thread's check-then-clear cannot straddle its replacement's set.
+     */
+    public synchronized void setVisibilityListener(VisibilityListener listener) {
+        visibilityListener = listener;
+    }
+
+    /**
+     * Clears the listener if it is still the given one, so a stopping thread
+     * does not remove its replacement.
+     */
+    public synchronized void removeVisibilityListener(VisibilityListener listener) {
+        if (visibilityListener == listener)
+            visibilityListener = null;
+    }
+
+    /**
+     * Runs the visibility listener on the calling thread.
+     */
+    public void setVisible(boolean visible) {
+        VisibilityListener listener = visibilityListener;
+        if (listener != null)
+            listener.onVisibilityChanged(visible);
+    }
+
+    public class Subscription implements Runnable {
+        private final Listener listener;
+        private final Executor executor;
+        private final AtomicBoolean pending = new AtomicBoolean();
+        private volatile boolean cancelled;
+        private boolean delivered;
+        private long last;
+
+        private Subscription(Listener listener, Executor executor) {
+            this.listener = listener;
+            this.executor = executor;
+        }
+
+        private void schedule() {
+            if (pending.compareAndSet(false, true))
+                executor.execute(this);
+        }
+
+        @Override
+        public void run() {
+            // Cleared first: a publish from here on schedules another run
+            pending.set(false);
+            long steps = latest;
+            if (cancelled || (delivered && steps == last))
+                return;
+            delivered = true;
+            last = steps;
+            listener.onSteps(steps);
+        }
+
+        /**
+         * Stops deliveries, including one already queued on the executor.
+         */
+        public void cancel() {
+            cancelled = true;
+            remove(this);
+        }
+    }
+}
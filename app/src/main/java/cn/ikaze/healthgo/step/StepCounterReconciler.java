@@ -0,0 +1,83 @@
+package cn.ikaze.healthgo.step;
+
+
+/**
+ * Turns readings of the hardware step counter, which counts from 0 since the
+ * last boot, into steps to add to the persisted count.
+ * <p>
+ * Whenever a count is saved, the service stores the counter value it
+ * corresponds to as an anchor. On the next start in the same boot, the steps
+ * the counter saw since the anchor, less those that still reached the count
+ * (e.g. through the journal), are the ones taken while the service was not
+ * running. After a reboot the counter started over, so all of it is new.
+ */
+public class StepCounterReconciler {
+
+    // Boot times further apart than this belong to different boots; the
+    // estimate moves with wall clock adjustments
+    private static final long SAME_BOOT_MS = 10 * 60000L;
+
+    private final long bootTime;
+    private boolean hasAnchor;
+    private boolean anchorSameBoot;
+    private long anchorCounter;
+    private long countedSinceAnchor;
+    private long last = -1;
+
+    /**
+     * @param bootTime when the device booted, in epoch millis
+     */
+    public StepCounterReconciler(long bootTime) {
+        this.bootTime = bootTime;
+    }
+
+    /**
+     * Sets the anchor saved by the previous run.
+     *
+     * @param anchorBootTime     boot time when the anchor was saved
+     * @param anchorCounter      counter value the saved count included
+     * @param countedSinceAnchor steps the restored count holds beyond the
+     *                           saved one
+     */
+    public void restore(long anchorBootTime, long anchorCounter, long countedSinceAnchor) {
+        hasAnchor = true;
+        anchorSameBoot = Math.abs(anchorBootTime - bootTime) < SAME_BOOT_MS;
+        this.anchorCounter = anchorCounter;
+        this.countedSinceAnchor = countedSinceAnchor;
+    }
+
+    /**
+     * @param counter current counter value
+     * @return steps not yet counted, never negative
+     */
+    public long update(long counter) {
+        long delta;
+        if (last < 0) {
+            if (!hasAnchor)
+                // First run: steps since boot were taken before the app counted
+                delta = 0;
+            else if (anchorSameBoot && counter >= anchorCounter)
+                delta = Math.max(0, counter - anchorCounter - countedSinceAnchor);
+            else
+                // Rebooted since the anchor, the counter started over
+                delta = counter;
+        } else if (counter >= last) {
+            delta = counter - last;
+        } else {
+            delta = counter;
+        }
+        last = counter;
+        return delta;
+    }
+
+    /**
+     * @return last counter value seen, or -1 before the first reading
+     */
+    public long getLastCounter() {
+        return last;
+    }
+
+    public long getBootTime() {
+        return bootTime;
+    }
+}
@@ -2,20 +2,29 @@ package cn.ikaze.healthgo.step;
 
 import android.util.Log;
 
-import java.math.BigDecimal;
+import cn.ikaze.healthgo.BuildConfig;
 
 
-public class StepDetector {
-    private final int DELAY = 100;
-    private final int MAX_DELAY = 600;
+/**
+ * The default {@link StepEngine}: peak/trough detection on the decimated
+ * acceleration magnitude with an adaptive threshold.
+ */
+public class StepDetector implements StepEngine {
+    // Per-sample logging is only compiled into debug builds; tests switch it off
+    // to measure the sample path on its own.
+    static boolean logEnabled = BuildConfig.LOG_DEBUG;
+
+    // Decimation interval and step window, in sensor time (nanoseconds)
+    private final long DELAY = 100 * 1000000L;
+    private final long MAX_DELAY = 600 * 1000000L;
     private final float GRAVITY = 9.810001516857282f;
     private float MAX_VEL = 14f;
     private float MIN_VEL = 7f;
     private float init_vel = 1.1f;
     //Threshold
     private float VEL_THRESHOLD = init_vel;
-    private float[] four_vels = {init_vel, init_vel, init_vel, init_vel};
-    private int pos = 0;
+    // Follows the amplitude of recent steps
+    private AdaptiveThreshold threshold = AdaptiveThreshold.windowed(AdaptiveThreshold.DEFAULT_WINDOW, init_vel);
     private StepListener stepListener;
     private long lastStepTime = 0;
     private float lastVel = 0;
@@ -64,32 +73,115 @@ public class StepDetector {
         this.model = model;
     }
 
+    /**
+     * Replaces the adaptive threshold, e.g. with a longer window for a slow
+     * walker. Its initial value is used after every reset.
+     */
+    public void setThreshold(AdaptiveThreshold threshold) {
+        this.threshold = threshold;
+        VEL_THRESHOLD = threshold.get();
+    }
+
+    public AdaptiveThreshold getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * @param window number of recent step amplitudes averaged for the threshold
+     * @param decay  if above 0, use an exponential moving average with this
+     *               weight instead of the window mean
+     */
+    public void configureThreshold(int window, float decay) {
+        setThreshold(decay > 0
+                ? AdaptiveThreshold.exponential(Math.min(1f, decay), init_vel)
+                : AdaptiveThreshold.windowed(Math.max(1, window), init_vel));
+    }
+
+    /**
+     * @deprecated samples are timed on arrival, pass the event timestamp to
+     * {@link #updateStep(float, float, float, long)} instead
+     */
+    @Deprecated
     public void updateStep(float x, float y, float z) {
+        updateStep(x, y, z, System.nanoTime());
+    }
 
-        long curTime = System.currentTimeMillis();
-        if (lastStepTime == 0) {
-            lastStepTime = curTime;
+    /**
+     * Processes one sample. Decimation and the step window run on the given
+     * timestamp, so recorded or batched data gives the same result as live data.
+     *
+     * @param timestamp event timestamp in nanoseconds, e.g. SensorEvent.timestamp
+     */
+    @Override
+    public void updateStep(float x, float y, float z, long timestamp) {
+        if (accept(timestamp))
+            process(x, y, z);
+    }
+
+    /**
+     * Processes a burst of samples delivered from the sensor FIFO. Decimation
+     * uses the original event timestamps, so a burst counts the same steps as
+     * the samples would have one by one.
+     *
+     * @param values     x, y, z of each sample, packed
+     * @param timestamps event timestamps in nanoseconds
+     * @param count      number of samples in the burst
+     */
+    @Override
+    public void updateSteps(float[] values, long[] timestamps, int count) {
+        for (int i = 0; i < count; i++) {
+            if (accept(timestamps[i]))
+                process(values[i * 3], values[i * 3 + 1], values[i * 3 + 2]);
         }
-        if (curTime - lastStepTime < DELAY)
-            return;
-        lastStepTime = curTime;
+    }
+
+    private boolean accept(long timestamp) {
+        // Also restart when time goes backwards, e.g. a new replay or sensor reset
+        if (lastStepTime == 0 || timestamp < lastStepTime) {
+            lastStepTime = timestamp;
+        }
+        long elapsed = timestamp - lastStepTime;
+        if (elapsed < DELAY)
+            return false;
+        // Samples further apart than a step cannot belong to the same wave
+        if (elapsed > MAX_DELAY)
+            resetWave();
+        lastStepTime = timestamp;
+        return true;
+    }
+
+    private void resetWave() {
+        nowStatus = init;
+        lastStatus = init;
+        crest = 0;
+        trough = 0;
+        lastVel = 0;
+    }
 
-        BigDecimal b = new BigDecimal(Math.sqrt(x * x + y * y + z * z));
-        float vel = b.setScale(2, BigDecimal.ROUND_DOWN).floatValue();
+    /**
+     * Runs one decimated sample through peak/trough detection. This is the
+     * per-sample hot path and must not allocate.
+     */
+    void process(float x, float y, float z) {
+        // Truncate the magnitude to two decimals without allocating
+        float vel = (int) (Math.sqrt(x * x + y * y + z * z) * 100) / 100f;
 
-        Log.d("eee", "v: " + vel);
+        if (logEnabled)
+            Log.d("eee", "v: " + vel);
 
         if (lastVel == 0)
             lastVel = vel;
 
         if (vel < MIN_VEL || vel > MAX_VEL) {
-            Log.d("step", "min max");
+            if (logEnabled)
+                Log.d("step", "min max");
             initStepDetector();
             return;
         }
 
         VEL_THRESHOLD = getVEL_THRESHOLD();
-        Log.d("eee", "threshold " + VEL_THRESHOLD);
+        if (logEnabled)
+            Log.d("eee", "threshold " + VEL_THRESHOLD);
 
 
         if(vel>lastVel)
@@ -108,19 +200,23 @@ public class StepDetector {
                 crest=lastVel;
             nowStatus=down;
         }
-        Log.d("eee", "vel: "+vel + ",," + lastVel );
-        Log.d("eee","status: "+nowStatus+",,"+lastStatus);
-        Log.d("eee","wave: "+crest+",,"+trough);
+        if (logEnabled) {
+            Log.d("eee", "vel: " + vel + ",," + lastVel);
+            Log.d("eee", "status: " + nowStatus + ",," + lastStatus);
+            Log.d("eee", "wave: " + crest + ",," + trough);
+        }
 
 
         if (nowStatus!=lastStatus&& (nowStatus!=init && lastStatus!=init))
         {
-            Log.d("eee","cha: "+(crest-trough));
+            if (logEnabled)
+                Log.d("eee", "cha: " + (crest - trough));
             if (crest - trough >= VEL_THRESHOLD) {
                 realSteps(1);
                 updateVEL_THRESHOLD(crest - trough);
             } else {
-                Log.d("eee","< THRESHOLD");
+                if (logEnabled)
+                    Log.d("eee", "< THRESHOLD");
                 initStepDetector();
             }
             crest=trough=0;
@@ -132,12 +228,14 @@ public class StepDetector {
     }
 
     public void realSteps(long num) {
-        Log.d("step", "model " + model);
+        if (logEnabled)
+            Log.d("step", "model " + model);
         initCount = 0;
         if (model == ACTIVITY_MODEL || model == RUN_MODEL)
             stepListener.step(num);
         else {
-            Log.d("step", "temp_step " + tempSteps);
+            if (logEnabled)
+                Log.d("step", "temp_step " + tempSteps);
 
             if (tempSteps >= WAIT_STEPS) {
                 model = RUN_MODEL;
@@ -148,6 +246,7 @@ public class StepDetector {
 
     }
 
+    @Override
     public void updateModel(boolean f) {
         if (f) {
             setModel(ACTIVITY_MODEL);
@@ -161,21 +260,28 @@ public class StepDetector {
     }
 
     public void initThreshold() {
-        pos=0;
-        for (int i = 0; i < 4; i++)
-            four_vels[i] = init_vel;
-
+        threshold.reset();
     }
 
     public void initStepDetector() {
 
-        Log.d("eee","initCount="+initCount);
+        if (logEnabled)
+            Log.d("eee", "initCount=" + initCount);
 
         if (initCount < 2) {
             initCount++;
             return;
         }
-        Log.d("eee","init step()");
+        resetStepDetector();
+    }
+
+    /**
+     * Starts over at once: new wave, initial threshold and, unless the
+     * activity is watching, waiting for steps again.
+     */
+    protected void resetStepDetector() {
+        if (logEnabled)
+            Log.d("eee", "init step()");
         nowStatus=init;
         lastStatus=init;
         crest=0;
@@ -190,19 +296,13 @@ public class StepDetector {
 
     public void updateVEL_THRESHOLD(float vel) {
 
-        four_vels[pos++] = vel;
-        if (pos == 4)
-            pos = 0;
-        Log.d("eee", "dour: " + four_vels[0] + " " + four_vels[1] + " " + four_vels[2] + " " + four_vels[3]);
+        threshold.add(vel);
+        if (logEnabled)
+            Log.d("eee", "amplitude: " + vel + " threshold " + threshold.get());
     }
 
     public float getVEL_THRESHOLD() {
-        float sum = 0;
-        for (int i = 0; i < 4; i++) {
-            sum += four_vels[i];
-        }
-        sum = sum / 4;
-        return sum;
+        return threshold.get();
     }
 
 
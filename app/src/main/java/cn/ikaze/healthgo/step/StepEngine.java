@@ -0,0 +1,27 @@
+package cn.ikaze.healthgo.step;
+
+
+/**
+ * Turns accelerometer samples into steps reported to a {@link StepListener}.
+ * Engines are created through {@link StepEngines} and fed on the detector
+ * thread only.
+ */
+public interface StepEngine {
+
+    /**
+     * @param timestamp event timestamp in nanoseconds, e.g. SensorEvent.timestamp
+     */
+    void updateStep(float x, float y, float z, long timestamp);
+
+    /**
+     * @param values     x, y, z of each sample, packed
+     * @param timestamps event timestamps in nanoseconds
+     * @param count      number of samples in the burst
+     */
+    void updateSteps(float[] values, long[] timestamps, int count);
+
+    /**
+     * @param activity true while the step count is on screen
+     */
+    void updateModel(boolean activity);
+}
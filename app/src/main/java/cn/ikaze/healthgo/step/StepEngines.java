@@ -0,0 +1,67 @@
+package cn.ikaze.healthgo.step;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Registry of step engines by name. The service picks one with the
+ * step_engine key of the conf preferences, so a detector can be tried on
+ * real users without touching the service; the benchmark runs all of them.
+ */
+public class StepEngines {
+
+    public interface Factory {
+        StepEngine create(StepListener listener);
+    }
+
+    // The peak/trough detector
+    public static final String DEFAULT = "peak";
+    // Full-rate band-pass filter ahead of detection
+    public static final String FILTERED = "filtered";
+
+    private static final Map<String, Factory> factories = new LinkedHashMap<>();
+
+    static {
+        register(DEFAULT, new Factory() {
+            @Override
+            public StepEngine create(StepListener listener) {
+                return new StepDetector(listener);
+            }
+        });
+        register(FILTERED, new Factory() {
+            @Override
+            public StepEngine create(StepListener listener) {
+                return new FilteredStepDetector(listener);
+            }
+        });
+    }
+
+    public static synchronized void register(String name, Factory factory) {
+        factories.put(name, factory);
+    }
+
+    /**
+     * @return registered names, in registration order
+     */
+    public static synchronized List<String> names() {
+        return new ArrayList<>(factories.keySet());
+    }
+
+    /**
+     * Creates the named engine, or the default one if the name is unknown.
+     */
+    public static synchronized StepEngine create(String name, StepListener listener) {
+        Factory factory = name == null ? null : factories.get(name);
+        if (factory == null) {
+            if (name != null)
+                Log.d("step", "unknown step engine " + name + ", using " + DEFAULT);
+            factory = factories.get(DEFAULT);
+        }
+        return factory.create(listener);
+    }
+}
@@ -0,0 +1,124 @@
+package cn.ikaze.healthgo.step;
+
+
+/**
+ * Streaming filter from raw accelerometer samples to the vertical walking
+ * signal: gravity is tracked with a one-pole low-pass and removed, the rest
+ * is projected on it, and a biquad band-pass around walking cadence drops
+ * posture changes and hand tremor.
+ * <p>
+ * The coefficients are worked out once from the sample rate, measured over
+ * the first samples after a reset; after that each sample is a handful of
+ * multiply-adds on preallocated state.
+ */
+public class StepFilter {
+
+    // Walking is roughly 0.7 to 3 steps a second
+    public static final float CENTER_HZ = 1.8f;
+    public static final float Q = 0.8f;
+    // Time constant of the gravity estimate
+    private static final float GRAVITY_TAU_S = 1f;
+    // Intervals averaged to measure the sample rate
+    private static final int RATE_SAMPLES = 8;
+    // A longer gap starts over
+    private static final long MAX_GAP_NS = 1000 * 1000000L;
+
+    private long lastTimestamp;
+    private long intervalSum;
+    private int intervals;
+    private boolean designed;
+    private float sampleRate;
+    private long intervalNs;
+
+    private boolean hasGravity;
+    private float gravityAlpha;
+    private float gx, gy, gz;
+
+    // Normalised biquad coefficients; b1 of a band-pass is 0
+    private float b0, b2, a1, a2;
+    private float x1, x2, y1, y2;
+
+    /**
+     * @param timestamp event timestamp in nanoseconds
+     * @return band-passed vertical acceleration in m/s^2, or NaN while the
+     * sample rate is still being measured
+     */
+    public float filter(float x, float y, float z, long timestamp) {
+        if (lastTimestamp != 0) {
+            long dt = timestamp - lastTimestamp;
+            // A gap, or a different sampling rate, starts over
+            if (dt <= 0 || dt > MAX_GAP_NS
+                    || designed && (dt > 3 * intervalNs || 3 * dt < intervalNs)) {
+                reset();
+            } else if (!designed) {
+                intervalSum += dt;
+                if (++intervals == RATE_SAMPLES)
+                    design(1e9f * intervals / intervalSum);
+            }
+        }
+        lastTimestamp = timestamp;
+
+        if (!hasGravity) {
+            gx = x;
+            gy = y;
+            gz = z;
+            hasGravity = true;
+        } else {
+            // Until the rate is known, settle quickly on the first samples
+            float alpha = designed ? gravityAlpha : 0.2f;
+            gx += alpha * (x - gx);
+            gy += alpha * (y - gy);
+            gz += alpha * (z - gz);
+        }
+        if (!designed)
+            return Float.NaN;
+
+        float norm = (float) Math.sqrt(gx * gx + gy * gy + gz * gz);
+        if (norm < 1e-3f)
+            return 0;
+        float vertical = ((x - gx) * gx + (y - gy) * gy + (z - gz) * gz) / norm;
+
+        float out = b0 * vertical + b2 * x2 - a1 * y1 - a2 * y2;
+        x2 = x1;
+        x1 = vertical;
+        y2 = y1;
+        y1 = out;
+        return out;
+    }
+
+    /**
+     * Band-pass from the RBJ audio EQ cookbook, 0 dB gain at the center.
+     */
+    private void design(float rate) {
+        sampleRate = rate;
+        intervalNs = (long) (1e9f / rate);
+        // Keep the center well under Nyquist at low rates
+        float center = Math.min(CENTER_HZ, 0.4f * rate);
+        double w0 = 2 * Math.PI * center / rate;
+        double alpha = Math.sin(w0) / (2 * Q);
+        double a0 = 1 + alpha;
+        b0 = (float) (alpha / a0);
+        b2 = (float) (-alpha / a0);
+        a1 = (float) (-2 * Math.cos(w0) / a0);
+        a2 = (float) ((1 - alpha) / a0);
+        float dt = 1 / rate;
+        gravityAlpha = dt / (GRAVITY_TAU_S + dt);
+        designed = true;
+    }
+
+    public void reset() {
+        lastTimestamp = 0;
+        intervalSum = 0;
+        intervals = 0;
+        designed = false;
+        hasGravity = false;
+        x1 = x2 = y1 = y2 = 0;
+    }
+
+    /**
+     * @return measured sample rate in Hz, 0 until known
+     */
+    public float getSampleRate() {
+        return designed ? sampleRate : 0;
+    }
+}
@@ -2,11 +2,9 @@ package cn.ikaze.healthgo.step;
 
 import android.app.PendingIntent;
 import android.app.Service;
-import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.os.IBinder;
-import android.os.PowerManager;
 import android.support.annotation.Nullable;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.app.TaskStackBuilder;
@@ -20,7 +18,6 @@ import cn.ikaze.healthgo.R;
 public class StepService extends Service {
 
     private StepThread thread;
-    private PowerManager.WakeLock mWakeLock;
 
 
     @Override
@@ -50,15 +47,11 @@ public class StepService extends Service {
         if (foreground_model) {
 
             myStartForeground();
-            mWakeLock(this);
         } else {
             stopForeground(true);
-            if (mWakeLock != null) {
-                if (mWakeLock.isHeld())
-                    mWakeLock.release();
-                mWakeLock = null;
-            }
         }
+        // Held per burst by the thread, not for the life of the service
+        thread.setKeepAwake(foreground_model);
 
 
         return START_STICKY;
@@ -90,12 +83,6 @@ public class StepService extends Service {
     @Override
     public void onDestroy() {
         Log.d("service", "service stop()");
-        if (mWakeLock != null) {
-            if (mWakeLock.isHeld())
-                mWakeLock.release();
-            mWakeLock = null;
-        }
-
         stopForeground(true);
         thread.mystop();
         MyApplication app = (MyApplication) getApplication();
@@ -116,32 +103,4 @@ public class StepService extends Service {
         return null;
     }
 
-    synchronized private PowerManager.WakeLock mWakeLock(Context context) {
-        if (mWakeLock != null) {
-            if (mWakeLock.isHeld())
-                mWakeLock.release();
-            mWakeLock = null;
-        }
-
-        if (mWakeLock == null) {
-            PowerManager mgr = (PowerManager) context
-                    .getSystemService(Context.POWER_SERVICE);
-            mWakeLock = mgr.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK,
-                    StepService.class.getName());
-            mWakeLock.setReferenceCounted(true);
-            mWakeLock.acquire();
-
-//            Calendar c = Calendar.getInstance();
-//            c.setTimeInMillis(System.currentTimeMillis());
-//            int hour = c.get(Calendar.HOUR_OF_DAY);
-//            if (hour >= 23 || hour <= 6) {
-//                mWakeLock.acquire(5000);
-//            } else {
-//                mWakeLock.acquire(300000);
-//            }
-        }
-        return (mWakeLock);
-    }
-
-
 }
@@ -1,107 +1,696 @@
 package cn.ikaze.healthgo.step;
 
+import android.annotation.TargetApi;
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
+import android.hardware.TriggerEvent;
+import android.hardware.TriggerEventListener;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.PowerManager;
+import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;
 
-import org.greenrobot.eventbus.EventBus;
-import org.greenrobot.eventbus.Subscribe;
+import java.io.File;
+import java.io.IOException;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
-import java.util.Date;
-
-import cn.ikaze.healthgo.DateTimeHelper;
+import cn.ikaze.healthgo.DayClock;
+import cn.ikaze.healthgo.model.JournalRecovery;
+import cn.ikaze.healthgo.model.StepJournal;
+import cn.ikaze.healthgo.model.SeriesTransaction;
 import cn.ikaze.healthgo.model.StepModel;
+import cn.ikaze.healthgo.model.StepSeries;
+import cn.ikaze.healthgo.model.StepSeriesStore;
+import cn.ikaze.healthgo.model.StepStore;
 import cn.ikaze.healthgo.model.StepTransaction;
-import cn.ikaze.healthgo.model.SuccessTransaction;
+import cn.ikaze.healthgo.model.WriteBehindBuffer;
 import io.realm.Realm;
-import io.realm.RealmAsyncTask;
-
 
 
-public class StepThread extends Thread implements  SensorEventListener, StepListener {
+/**
+ * Step counting pipeline. Sensor callbacks arrive on a dedicated "step-sensor"
+ * looper and are queued into a {@link SampleRingBuffer}; this thread's looper
+ * drains the queue through the detector; Realm reads and writes run on a
+ * separate "step-persist" looper. The main thread is never on the sample path.
+ * <p>
+ * Devices with a hardware step counter or step detector count on the sensor
+ * hub instead, and the accelerometer is not used at all.
+ */
+public class StepThread extends HandlerThread implements  SensorEventListener, StepListener,
+        StepChannel.VisibilityListener {
+
+    // Default time the sensor FIFO may hold samples before waking the CPU
+    private static final int DEFAULT_BATCH_LATENCY_MS = 10000;
+    private static final int BURST_CAPACITY = 256;
+    private static final int RING_CAPACITY = 1024;
+    // A sample this close to now marks the end of a delivered burst
+    private static final long BURST_TAIL_NS = 500000000L;
+    // Write-behind policy: persist after this long or this many steps. Steps in
+    // between are kept in the journal, so these can be generous.
+    private static final int DEFAULT_FLUSH_INTERVAL_MS = 300000;
+    private static final int DEFAULT_FLUSH_STEPS = 500;
+    private static final int DEFAULT_BUCKET_MINUTES = 1;
+    // Accelerometer duty cycling: low rate after this long without a step,
+    // then significant motion only
+    private static final int DEFAULT_IDLE_LOW_RATE_MS = 10 * 60000;
+    private static final int DEFAULT_IDLE_TRIGGER_MS = 30 * 60000;
+    private static final int DEFAULT_LOW_RATE_PERIOD_MS = 1000;
+    // A burst is normally processed in well under this; the timeout only
+    // bounds a missed release
+    private static final long BURST_HOLD_MS = 2000;
+    private static final int DEFAULT_KEEP_AWAKE_MS = 60000;
+    // Squared magnitudes outside gravity +/- 1.5 m/s^2 count as motion
+    private static final float MOTION_MIN_SQ = 8.31f * 8.31f;
+    private static final float MOTION_MAX_SQ = 11.31f * 11.31f;
 
     private SensorManager sensorManager;
     Sensor accel;
-    private StepDetector stepDetector;
+    // Hardware step counter or step detector, null when the device has neither
+    private Sensor stepSensor;
+    private StepCounterReconciler reconciler;
+    // Counter anchors saved along with the count, see StepCounterReconciler
+    private SharedPreferences anchors;
+    private final AtomicLong counterValue = new AtomicLong(-1);
+    private final AtomicLong detectedSteps = new AtomicLong();
+    private final AtomicBoolean stepsScheduled = new AtomicBoolean();
+
+    // Only when counting with the accelerometer
+    private SamplingScheduler scheduler;
+    private int lowRatePeriodUs;
+    private Sensor significantMotion;
+    private TriggerEventListener motionTrigger;
+    // Seen by the current drain, on the detector looper
+    private boolean sawMotion;
+    private boolean sawStep;
+    private StepEngine stepEngine;
     private long numStpes = 0;
-    private long lastStpes = 0;
-    RealmAsyncTask realmAsyncTask;
+    private WriteBehindBuffer writer;
+    private StepJournal journal;
+    // Steps a full journal turned away, added to the next record
+    private int unjournaled;
+    private long journalMisses;
+    // Only used on the persistence looper
+    private StepStore store;
+    // Today's steps per time bucket, saved along with the daily count
+    private StepSeries series;
+    private int bucketMinutes;
+    // Set on the detector looper once the saved state has been handed over
+    private boolean loaded;
+    // The day's stored count is still being read; steps counted meanwhile are
+    // added to it once it arrives
+    private boolean loadingDay = true;
     boolean isRegiter = false;
-    boolean isActivity = false;
+    volatile boolean isActivity = false;
     private Context context;
-    private Date today;
+    private int today;
+    private final DayClock dayClock = new DayClock();
+
+    private int batchLatencyUs;
+    private volatile boolean isBatched = false;
+    private final SampleRingBuffer samples = new SampleRingBuffer(RING_CAPACITY);
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private final float[] burstValues = new float[BURST_CAPACITY * 3];
+    private final long[] burstTimes = new long[BURST_CAPACITY];
+
+    private final StepChannel channel = StepChannel.get();
+    private WakeLockManager wakeLock;
+    // Guards scheduling a burst against afterBurst() releasing the wake lock
+    private final Object burstLock = new Object();
+    private volatile boolean keepAwake;
+    private long keepAwakeMs;
+
+    private HandlerThread sensorThread;
+    private Handler sensorHandler;
+    private Handler handler;
+    private HandlerThread persistThread;
+    private Handler persistHandler;
+
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                drainSamples();
+                updateSampling();
+                flushIfDue();
+            } finally {
+                afterBurst();
+            }
+        }
+    };
+
+    // Significant motion fired while sampling was off
+    private final Runnable motion = new Runnable() {
+        @Override
+        public void run() {
+            sawMotion = true;
+            updateSampling();
+        }
+    };
+
+    private final Runnable hardwareSteps = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                countHardwareSteps();
+                flushIfDue();
+            } finally {
+                afterBurst();
+            }
+        }
+    };
+
+    private final Runnable closeStore = new Runnable() {
+        @Override
+        public void run() {
+            store.close();
+            if (journal != null)
+                journal.close();
+        }
+    };
+
+    // Clock or time zone changes move midnight; runs on the detector looper
+    private final BroadcastReceiver timeChanged = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (dayClock.reset(System.currentTimeMillis()))
+                newDay();
+        }
+    };
+
+    private final Runnable flushDue = new Runnable() {
+        @Override
+        public void run() {
+            flushIfDue();
+            scheduleFlush();
+        }
+    };
 
 
     public StepThread(Context context) {
+        super("step-detector", Process.THREAD_PRIORITY_FOREGROUND);
         this.context = context;
+        persistThread = new HandlerThread("step-persist", Process.THREAD_PRIORITY_BACKGROUND);
+        persistThread.start();
+        persistHandler = new Handler(persistThread.getLooper());
+        PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        final PowerManager.WakeLock lock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK,
+                StepThread.class.getName());
+        lock.setReferenceCounted(false);
+        wakeLock = new WakeLockManager(new WakeLockManager.Lock() {
+            @Override
+            public void acquire(long timeoutMs) {
+                lock.acquire(timeoutMs);
+            }
+
+            @Override
+            public void release() {
+                if (lock.isHeld())
+                    lock.release();
+            }
+        });
         initStepDetector();
     }
 
 
     @Override
-    public void run() {
+    protected void onLooperPrepared() {
+        handler = new Handler(getLooper());
+        sensorThread = new HandlerThread("step-sensor", Process.THREAD_PRIORITY_FOREGROUND);
+        sensorThread.start();
+        sensorHandler = new Handler(sensorThread.getLooper());
+        loadState(today);
+    }
+
+    /**
+     * Recovers the journal and reads the day's saved count, buckets and
+     * counter anchor on the persistence looper, so the service's onCreate
+     * never waits on Realm, then starts counting on this looper.
+     */
+    private void loadState(final int day) {
+        persistHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                final long saved;
+                final StepSeries stored;
+                Realm realm = Realm.getDefaultInstance();
+                try {
+                    try {
+                        journal = new StepJournal(new File(context.getFilesDir(), "step_journal"));
+                        replayJournal(realm);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        Log.d("journal", "journal unavailable");
+                    }
+                    saved = savedSteps(realm, day);
+                    if (stepSensor != null && stepSensor.getType() == Sensor.TYPE_STEP_COUNTER)
+                        restoreAnchor(realm, day, saved);
+                    stored = StepSeriesStore.load(realm, day, bucketMinutes, TimeZone.getDefault());
+                } finally {
+                    realm.close();
+                }
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        dayLoaded(day, saved, stored);
+                        startCounting();
+                    }
+                });
+            }
+        });
+    }
+
+    private void startCounting() {
+        loaded = true;
+        IntentFilter filter = new IntentFilter(Intent.ACTION_TIME_CHANGED);
+        filter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
+        filter.addAction(Intent.ACTION_DATE_CHANGED);
+        context.registerReceiver(timeChanged, filter, null, handler);
         if (!isRegiter) {
-            sensorManager.registerListener(this, accel, SensorManager.SENSOR_DELAY_NORMAL);
-            isRegiter = true;
+            register();
+        }
+    }
+
+    /**
+     * Registers the step sensor, or the accelerometer, on the sensor looper.
+     * While no activity is watching the count, events are batched in the
+     * sensor FIFO for up to batchLatencyUs so the CPU only wakes once per burst.
+     * An idle accelerometer runs at the low rate, or not at all while waiting
+     * for significant motion.
+     */
+    private void register() {
+        isRegiter = true;
+        int state = scheduler != null ? scheduler.getState() : SamplingScheduler.FULL;
+        if (state == SamplingScheduler.TRIGGER) {
+            isBatched = false;
+            armMotionTrigger();
+            return;
+        }
+        Sensor sensor = stepSensor != null ? stepSensor : accel;
+        int rate = state == SamplingScheduler.LOW ? lowRatePeriodUs : SensorManager.SENSOR_DELAY_NORMAL;
+        isBatched = batchLatencyUs > 0 && !isActivity && supportsBatching(sensor);
+        if (isBatched)
+            registerBatched(sensor, rate);
+        else
+            sensorManager.registerListener(this, sensor, rate, sensorHandler);
+    }
+
+    // Only called once supportsBatching() has checked for KitKat
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private void registerBatched(Sensor sensor, int rate) {
+        sensorManager.registerListener(this, sensor, rate, batchLatencyUs, sensorHandler);
+    }
+
+    private void unregister() {
+        sensorManager.unregisterListener(this);
+        if (motionTrigger != null)
+            cancelMotionTrigger();
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private void armMotionTrigger() {
+        if (motionTrigger == null) {
+            motionTrigger = new TriggerEventListener() {
+                @Override
+                public void onTrigger(TriggerEvent event) {
+                    handler.post(motion);
+                }
+            };
+        }
+        sensorManager.requestTriggerSensor(motionTrigger, significantMotion);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private void cancelMotionTrigger() {
+        sensorManager.cancelTriggerSensor(motionTrigger, significantMotion);
+    }
+
+    /**
+     * Runs after each drain: back to full rate on a step or motion, down a
+     * level once idle long enough.
+     */
+    private void updateSampling() {
+        if (scheduler == null)
+            return;
+        long now = SystemClock.elapsedRealtime();
+        boolean changed = sawMotion || sawStep ? scheduler.onActivity(now) : scheduler.update(now);
+        sawMotion = false;
+        sawStep = false;
+        if (changed && isRegiter) {
+            Log.d("step", scheduler.report(now));
+            unregister();
+            register();
         }
     }
 
+    private static boolean supportsBatching(Sensor sensor) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+                && sensor.getFifoMaxEventCount() > 0;
+    }
+
+    /**
+     * @return the step counter, else the step detector, else null
+     */
+    private Sensor findStepSensor() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT)
+            return null;
+        Sensor counter = sensorManager.getDefaultSensor(Sensor.TYPE_STEP_COUNTER);
+        if (counter != null)
+            return counter;
+        return sensorManager.getDefaultSensor(Sensor.TYPE_STEP_DETECTOR);
+    }
+
     public void mystop()
     {
-        if (isRegiter) {
-            sensorManager.unregisterListener(this);
-            isRegiter = false;
+        if (handler == null) {
+            channel.removeVisibilityListener(this);
+            persistHandler.post(closeStore);
+            quitAfterPending(persistThread);
+            return;
         }
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (isRegiter) {
+                    unregister();
+                    isRegiter = false;
+                }
+                if (loaded)
+                    context.unregisterReceiver(timeChanged);
+                channel.removeVisibilityListener(StepThread.this);
+                drainSamples();
+                long now = SystemClock.elapsedRealtime();
+                if (scheduler != null)
+                    Log.d("step", scheduler.report(now));
+                wakeLock.release(now);
+                Log.d("step", wakeLock.report(now));
+                saveWakeStats(now);
+                writer.flush();
+                Log.d("realm", "flushes " + writer.getFlushCount());
+                if (journalMisses > 0)
+                    Log.d("journal", "journal full for " + journalMisses + " records");
+                persistHandler.post(closeStore);
+                quitAfterPending(sensorThread);
+                quitAfterPending(persistThread);
+                quit();
+            }
+        });
+    }
 
+    /**
+     * Quits the looper once the work already queued on it has run.
+     */
+    private static void quitAfterPending(final HandlerThread thread) {
+        new Handler(thread.getLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                thread.quit();
+            }
+        });
+    }
 
+    /**
+     * Keeps the CPU awake for sampling while the accelerometer cannot batch,
+     * the old foreground mode. The lock is renewed by every drain and lapses
+     * keepAwakeMs after the samples stop, e.g. while waiting for motion.
+     */
+    public void setKeepAwake(boolean keepAwake) {
+        this.keepAwake = keepAwake;
+        if (!keepAwake)
+            wakeLock.release(SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * Batched bursts hold the CPU only until they are processed; unbatched
+     * sampling in keep-awake mode renews the hold instead. The lock is not
+     * reference counted, so it stays held while a burst that arrived during
+     * this one is still queued. The check and the release share burstLock
+     * with scheduleBurst(), so a burst scheduled in between keeps its hold.
+     */
+    private void afterBurst() {
+        long now = SystemClock.elapsedRealtime();
+        synchronized (burstLock) {
+            if (keepAwake && !isBatched && stepSensor == null)
+                wakeLock.hold(keepAwakeMs, now);
+            else if (!drainScheduled.get() && !stepsScheduled.get())
+                wakeLock.release(now);
+        }
+    }
+
+    /**
+     * Adds this run's wake lock time to the totals kept across runs.
+     */
+    private void saveWakeStats(long now) {
+        SharedPreferences stats = context.getSharedPreferences("step_stats", Context.MODE_PRIVATE);
+        stats.edit()
+                .putLong("wake_held_ms", stats.getLong("wake_held_ms", 0) + wakeLock.getHeldMs(now))
+                .putLong("wake_acquires", stats.getLong("wake_acquires", 0) + wakeLock.getAcquireCount())
+                .apply();
     }
 
     public boolean isActivity() {
         return isActivity;
     }
 
-    public void setActivity(boolean activity) {
+    public void setActivity(final boolean activity) {
         isActivity = activity;
+        if (handler == null)
+            return;
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                // Someone is looking, sample at full rate again
+                boolean woke = activity && scheduler != null
+                        && scheduler.onActivity(SystemClock.elapsedRealtime());
+                // Live counts while the activity is visible, batched delivery otherwise
+                if (isRegiter && (isBatched == activity || woke)) {
+                    unregister();
+                    drainSamples();
+                    register();
+                }
+            }
+        });
     }
 
     public void initStepDetector() {
 
-        today= DateTimeHelper.getToday();
-        stepDetector = new StepDetector(this);
+        today = dayClock.getDay();
         sensorManager = (SensorManager) context.getSystemService(context.SENSOR_SERVICE);
         accel = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
-        Realm realm = Realm.getDefaultInstance();
-        StepModel result = realm.where(StepModel.class)
-                .equalTo("date", today)
+        SharedPreferences sharedPreferences = context.getSharedPreferences("conf", Context.MODE_PRIVATE);
+        batchLatencyUs = sharedPreferences.getInt("batch_latency_ms", DEFAULT_BATCH_LATENCY_MS) * 1000;
+        keepAwakeMs = sharedPreferences.getInt("keep_awake_ms", DEFAULT_KEEP_AWAKE_MS);
+        if (sharedPreferences.getBoolean("hardware_steps", true))
+            stepSensor = findStepSensor();
+        if (stepSensor == null) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2)
+                significantMotion = sensorManager.getDefaultSensor(Sensor.TYPE_SIGNIFICANT_MOTION);
+            scheduler = new SamplingScheduler(
+                    sharedPreferences.getInt("idle_low_rate_ms", DEFAULT_IDLE_LOW_RATE_MS),
+                    sharedPreferences.getInt("idle_trigger_ms", DEFAULT_IDLE_TRIGGER_MS),
+                    significantMotion != null, SystemClock.elapsedRealtime());
+            lowRatePeriodUs = sharedPreferences.getInt("low_rate_period_ms", DEFAULT_LOW_RATE_PERIOD_MS) * 1000;
+        }
+        stepEngine = StepEngines.create(sharedPreferences.getString("step_engine", StepEngines.DEFAULT), this);
+        if (stepEngine instanceof StepDetector) {
+            // Slow walkers need a longer threshold window to count steadily
+            ((StepDetector) stepEngine).configureThreshold(
+                    sharedPreferences.getInt("threshold_window", AdaptiveThreshold.DEFAULT_WINDOW),
+                    sharedPreferences.getFloat("threshold_decay", 0));
+        }
+        writer = new WriteBehindBuffer(new WriteBehindBuffer.Sink() {
+            @Override
+            public void write(int day, long num) {
+                save(day, num);
+            }
+        }, sharedPreferences.getInt("flush_interval_ms", DEFAULT_FLUSH_INTERVAL_MS),
+                sharedPreferences.getInt("flush_steps", DEFAULT_FLUSH_STEPS));
+        bucketMinutes = sharedPreferences.getInt("bucket_minutes", DEFAULT_BUCKET_MINUTES);
+        if (!StepSeries.isValidBucketMinutes(bucketMinutes)) {
+            Log.d("step", "bucket_minutes " + bucketMinutes + " does not divide a day");
+            bucketMinutes = DEFAULT_BUCKET_MINUTES;
+        }
+        store = new StepStore(sharedPreferences.getBoolean("cached_realm", true));
+        // Filled in by loadState() once the thread runs
+        series = new StepSeries(today, bucketMinutes, TimeZone.getDefault());
+        Log.d("step", "counting with " + (stepSensor != null ? stepSensor.getName() : "accelerometer"));
+        channel.setVisibilityListener(this);
+    }
+
+    private static long savedSteps(Realm realm, int day) {
+        StepModel saved = realm.where(StepModel.class)
+                .equalTo("day", day)
                 .findFirst();
+        return saved == null ? 0 : saved.getNumSteps();
+    }
+
+    /**
+     * Saves counts the journal holds beyond what Realm has, i.e. steps taken
+     * since the last flush before the process was killed, then empties it.
+     * The deltas also go back into each day's buckets, skipping records the
+     * buckets were already saved with.
+     */
+    private void replayJournal(final Realm realm) {
+        final TimeZone timeZone = TimeZone.getDefault();
+        JournalRecovery recovery = new JournalRecovery(new JournalRecovery.Days() {
+            @Override
+            public StepSeries load(int day) {
+                return StepSeriesStore.load(realm, day, bucketMinutes, timeZone);
+            }
+        });
+        journal.replay(recovery);
+        long seq = journal.nextSeq();
+        for (StepSeries s : recovery.getSeries()) {
+            realm.executeTransaction(new SeriesTransaction(s.getDay(), s.getBucketMinutes(), s.encode(),
+                    Math.max(seq, s.getJournalSeq())));
+        }
+        for (int day : recovery.getDays()) {
+            long total = recovery.getTotal(day);
+            if (savedSteps(realm, day) < total) {
+                Log.d("journal", "recovered " + day + " " + total);
+                realm.executeTransaction(new StepTransaction(day, total));
+            }
+        }
+        journal.clear();
+        // A lost and recreated journal would hand out saved numbers again
+        journal.skipTo(StepSeriesStore.lastJournalSeq(realm));
+    }
 
-        lastStpes = result == null ? 0 : result.getNumSteps();
-        step(lastStpes);
-        realm.close();
-        if (!EventBus.getDefault().isRegistered(this))
-            EventBus.getDefault().register(this);
+    /**
+     * Sets up the reconciler with the counter value the last saved count
+     * included, and how many steps the restored count holds beyond it.
+     */
+    private void restoreAnchor(Realm realm, int restoredDay, long restored) {
+        reconciler = new StepCounterReconciler(System.currentTimeMillis() - SystemClock.elapsedRealtime());
+        anchors = context.getSharedPreferences("step_counter", Context.MODE_PRIVATE);
+        if (!anchors.contains("counter"))
+            return;
+        int day = anchors.getInt("day", restoredDay);
+        long counted = restored - anchors.getLong("total", 0);
+        if (day != restoredDay) {
+            // Saved on an earlier day: that day's later steps, plus all of today
+            counted = savedSteps(realm, day) - anchors.getLong("total", 0) + restored;
+        }
+        reconciler.restore(anchors.getLong("boot_time", 0), anchors.getLong("counter", 0), Math.max(0, counted));
     }
 
-    @Subscribe
-    public void subscribeActivity(Boolean f) {
-        if (f)
-            EventBus.getDefault().post(numStpes);
+    @Override
+    public void onVisibilityChanged(final boolean f) {
+        Runnable update = new Runnable() {
+            @Override
+            public void run() {
+                if (f && loaded)
+                    channel.publish(numStpes);
+                else
+                    writer.flush();
+            }
+        };
+        if (handler != null)
+            handler.post(update);
         else
-            save(DateTimeHelper.getToday(),numStpes);
-        isActivity = f;
+            update.run();
+        setActivity(f);
     }
 
+    /**
+     * Runs on the sensor looper: queue the sample and wake the detector thread,
+     * at once for live delivery or at the end of a burst when batched.
+     */
     @Override
     public void onSensorChanged(SensorEvent sensorEvent) {
         if (sensorEvent.sensor.getType() == Sensor.TYPE_ACCELEROMETER) {
-            stepDetector.updateModel(isActivity);
+            samples.offer(sensorEvent.values[0], sensorEvent.values[1], sensorEvent.values[2],
+                    sensorEvent.timestamp);
+            boolean endOfBurst = !isBatched
+                    || samples.size() >= BURST_CAPACITY
+                    || isBurstTail(sensorEvent.timestamp);
+            if (endOfBurst && scheduleBurst(drainScheduled))
+                handler.post(drain);
+        } else if (sensorEvent.sensor.getType() == Sensor.TYPE_STEP_COUNTER) {
+            // Cumulative, only the latest value matters
+            counterValue.set((long) sensorEvent.values[0]);
+            if (scheduleBurst(stepsScheduled))
+                handler.post(hardwareSteps);
+        } else if (sensorEvent.sensor.getType() == Sensor.TYPE_STEP_DETECTOR) {
+            detectedSteps.incrementAndGet();
+            if (scheduleBurst(stepsScheduled))
+                handler.post(hardwareSteps);
+        }
 
-            stepDetector.updateStep(sensorEvent.values[0], sensorEvent.values[1], sensorEvent.values[2]);
+    }
+
+    /**
+     * @return true if the sample was taken just now rather than waiting in
+     * the FIFO. Only called while batched, so on KitKat or later.
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static boolean isBurstTail(long timestamp) {
+        return SystemClock.elapsedRealtimeNanos() - timestamp < BURST_TAIL_NS;
+    }
+
+    /**
+     * Marks work for the detector thread as scheduled, unless it already is.
+     * The CPU may sleep again as soon as the sensor callback returns, so a
+     * batched burst is held awake until the detector thread has processed it.
+     *
+     * @return true if the caller should post the work
+     */
+    private boolean scheduleBurst(AtomicBoolean scheduled) {
+        synchronized (burstLock) {
+            if (!scheduled.compareAndSet(false, true))
+                return false;
+            if (isBatched)
+                wakeLock.hold(BURST_HOLD_MS, SystemClock.elapsedRealtime());
+            return true;
         }
+    }
 
+    private void drainSamples() {
+        drainScheduled.set(false);
+        stepEngine.updateModel(isActivity);
+        // Low-rate samples are further apart than a step and would only reset
+        // the engine's wave; they just watch for movement to go back to full rate
+        boolean idle = scheduler != null && scheduler.getState() != SamplingScheduler.FULL;
+        int count;
+        while ((count = samples.drainTo(burstValues, burstTimes, BURST_CAPACITY)) > 0) {
+            if (!idle)
+                stepEngine.updateSteps(burstValues, burstTimes, count);
+            else if (!sawMotion)
+                sawMotion = hasMotion(burstValues, count);
+        }
+    }
+
+    private static boolean hasMotion(float[] values, int count) {
+        for (int i = 0; i < count; i++) {
+            float x = values[i * 3];
+            float y = values[i * 3 + 1];
+            float z = values[i * 3 + 2];
+            float sq = x * x + y * y + z * z;
+            if (sq < MOTION_MIN_SQ || sq > MOTION_MAX_SQ)
+                return true;
+        }
+        return false;
+    }
+
+    private void countHardwareSteps() {
+        stepsScheduled.set(false);
+        long steps = detectedSteps.getAndSet(0);
+        long counter = counterValue.get();
+        if (reconciler != null && counter >= 0 && counter != reconciler.getLastCounter())
+            steps += reconciler.update(counter);
+        if (steps > 0)
+            step(steps);
     }
 
     @Override
@@ -111,42 +700,146 @@ public class StepThread extends Thread implements  SensorEventListener, StepList
 
     @Override
     public void step(long num) {
-        if (!today.equals(DateTimeHelper.getToday()))
-        {
-            save(today,numStpes);
-            numStpes=0;
-            lastStpes=0;
-            today=DateTimeHelper.getToday();
+        sawStep = true;
+        long now = System.currentTimeMillis();
+        if (dayClock.isNewDay(now)) {
+            dayClock.reset(now);
+            newDay();
         }
         numStpes += num;
-        Log.d("step", "step(num) " + numStpes);
-        EventBus.getDefault().post(numStpes);
-        if (numStpes - lastStpes > 10) {
-            lastStpes = numStpes;
-            save(today,numStpes);
+        series.add(now, (int) num);
+        if (journal != null) {
+            if (journal.append(now, today, (int) num + unjournaled, numStpes)) {
+                unjournaled = 0;
+            } else {
+                // Full only if saves keep failing; a flush lets it compact
+                // again, and the next record carries these steps
+                unjournaled += num;
+                journalMisses++;
+                writer.flush();
+            }
         }
+        if (StepDetector.logEnabled)
+            Log.d("step", "step(num) " + numStpes);
+        if (loadingDay)
+            return;
+        channel.publish(numStpes);
+        boolean wasDirty = writer.isDirty();
+        writer.update(today, numStpes, SystemClock.elapsedRealtime());
+        if (!wasDirty)
+            scheduleFlush();
 
     }
 
-    public void save(Date date,long num)
-    {
-        Realm realm = Realm.getDefaultInstance();
-        realmAsyncTask = realm.executeTransactionAsync(
-                new StepTransaction(date, num),
-                new SuccessTransaction(realmAsyncTask),
-                new Realm.Transaction.OnError() {
+    /**
+     * Saves the finished day and continues with the one dayClock is now on.
+     * That is usually a fresh day, but after a time zone change it can be one
+     * that already has steps.
+     */
+    private void newDay() {
+        writer.flush();
+        // That save holds the finished day's steps the journal missed
+        unjournaled = 0;
+        today = dayClock.getDay();
+        numStpes = 0;
+        series = new StepSeries(today, bucketMinutes, TimeZone.getDefault());
+        loadingDay = true;
+        final int day = today;
+        persistHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                final long saved;
+                final StepSeries stored;
+                Realm realm = Realm.getDefaultInstance();
+                try {
+                    saved = savedSteps(realm, day);
+                    stored = StepSeriesStore.load(realm, day, bucketMinutes, TimeZone.getDefault());
+                } finally {
+                    realm.close();
+                }
+                handler.post(new Runnable() {
                     @Override
-                    public void onError(Throwable error) {
-                        error.printStackTrace();
-                        Log.d("realm", "insert error");
+                    public void run() {
+                        dayLoaded(day, saved, stored);
                     }
+                });
+            }
+        });
+    }
+
+    /**
+     * Continues the day from its saved count and buckets, read on the
+     * persistence looper, plus whatever was counted while they were read.
+     */
+    private void dayLoaded(int day, long saved, StepSeries stored) {
+        // The day changed again meanwhile; its own load follows
+        if (day != today)
+            return;
+        stored.addAll(series);
+        series = stored;
+        numStpes += saved;
+        loadingDay = false;
+        writer.restore(day, saved);
+        if (numStpes != saved) {
+            writer.update(day, numStpes, SystemClock.elapsedRealtime());
+            scheduleFlush();
+        }
+        channel.publish(numStpes);
+    }
+
+    /**
+     * Arms the write-behind timer for the buffered count, if any. The buffer
+     * runs on elapsedRealtime, but handler delays stop in deep sleep, so the
+     * timer only covers an awake CPU; every drain checks the deadline as well.
+     */
+    private void scheduleFlush() {
+        long deadline = writer.getDeadline();
+        if (handler != null && deadline >= 0) {
+            handler.removeCallbacks(flushDue);
+            handler.postDelayed(flushDue, Math.max(0, deadline - SystemClock.elapsedRealtime()));
+        }
+    }
+
+    private void flushIfDue() {
+        writer.flushIfDue(SystemClock.elapsedRealtime());
+    }
+
+    public long getFlushCount() {
+        return writer.getFlushCount();
+    }
+
+    /**
+     * Queues a write of the day's count, and its buckets, on the persistence
+     * looper. Once it is committed, the journal records it covers are dropped.
+     */
+    public void save(final int day, final long num)
+    {
+        final long seq = journal != null ? journal.nextSeq() : 0;
+        final byte[] buckets = series != null && series.getDay() == day ? series.encode() : null;
+        final long counter = reconciler != null ? reconciler.getLastCounter() : -1;
+        persistHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    store.write(day, num, buckets, bucketMinutes, seq);
+                    if (journal != null)
+                        journal.compactThrough(seq);
+                    if (counter >= 0)
+                        anchors.edit()
+                                .putLong("boot_time", reconciler.getBootTime())
+                                .putLong("counter", counter)
+                                .putInt("day", day)
+                                .putLong("total", num)
+                                .apply();
+                } catch (RuntimeException error) {
+                    error.printStackTrace();
+                    Log.d("realm", "insert error");
                 }
-        );
-        realm.close();
+            }
+        });
     }
 
 
 
 }
 
-
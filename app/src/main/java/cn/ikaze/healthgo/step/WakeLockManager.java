@@ -0,0 +1,101 @@
+package cn.ikaze.healthgo.step;
+
+import java.util.Locale;
+
+
+/**
+ * Timed, non-reference-counted wake lock with accounting. Every hold has a
+ * timeout, so a missed release costs at most that long, and the time the CPU
+ * was actually kept awake is added up so it can be compared across policies.
+ * <p>
+ * Times are on a caller-supplied clock that keeps running in deep sleep
+ * (elapsedRealtime). Safe to call from the sensor and detector threads.
+ */
+public class WakeLockManager {
+
+    /**
+     * The platform lock, e.g. a non-reference-counted PARTIAL_WAKE_LOCK.
+     */
+    public interface Lock {
+        void acquire(long timeoutMs);
+
+        void release();
+    }
+
+    private final Lock lock;
+    private boolean held;
+    private long since;
+    private long until;
+
+    private long heldMs;
+    private long maxHoldMs;
+    private long acquireCount;
+
+    public WakeLockManager(Lock lock) {
+        this.lock = lock;
+    }
+
+    /**
+     * Keeps the CPU awake for at least timeoutMs from now, extending a hold
+     * already in progress.
+     */
+    public synchronized void hold(long timeoutMs, long now) {
+        expire(now);
+        if (!held) {
+            held = true;
+            since = now;
+            until = now;
+            acquireCount++;
+        }
+        if (now + timeoutMs > until) {
+            until = now + timeoutMs;
+            // Re-acquiring a non-counted lock replaces its timeout
+            lock.acquire(timeoutMs);
+        }
+    }
+
+    public synchronized void release(long now) {
+        expire(now);
+        if (held) {
+            end(now);
+            lock.release();
+        }
+    }
+
+    // The platform lock has already dropped itself once the timeout passed
+    private void expire(long now) {
+        if (held && now >= until)
+            end(until);
+    }
+
+    private void end(long at) {
+        long hold = at - since;
+        heldMs += hold;
+        maxHoldMs = Math.max(maxHoldMs, hold);
+        held = false;
+    }
+
+    public synchronized boolean isHeld(long now) {
+        return held && now < until;
+    }
+
+    /**
+     * @return total time held, including the current hold
+     */
+    public synchronized long getHeldMs(long now) {
+        return heldMs + (held ? Math.min(now, until) - since : 0);
+    }
+
+    public synchronized long getAcquireCount() {
+        return acquireCount;
+    }
+
+    public synchronized long getMaxHoldMs() {
+        return maxHoldMs;
+    }
+
+    public synchronized String report(long now) {
+        return String.format(Locale.US, "wake lock held %d ms in %d acquisitions, longest %d ms",
+                getHeldMs(now), acquireCount, maxHoldMs);
+    }
+}
@@ -0,0 +1,43 @@
+package cn.ikaze.healthgo;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+
+/**
+ * Counts the bytes the current thread allocates, for tests of paths that
+ * must not allocate at all.
+ */
+public class Allocations {
+
+    // Room for the measurement itself, not for anything the work allocates
+    public static final long SLACK_BYTES = 1024;
+
+    /**
+     * @return bytes allocated by the current thread while work ran. Skips the
+     * test on JVMs that cannot count them.
+     */
+    public static long measure(Runnable work) {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        long tid = Thread.currentThread().getId();
+        long before = threadBean.getThreadAllocatedBytes(tid);
+        work.run();
+        return threadBean.getThreadAllocatedBytes(tid) - before;
+    }
+
+    /**
+     * Fails if work allocates, however many times it loops.
+     */
+    public static void assertNone(String what, Runnable work) {
+        long allocated = measure(work);
+        assertTrue(what + " allocated " + allocated + " bytes", allocated < SLACK_BYTES);
+    }
+}
@@ -0,0 +1,15 @@
+package cn.ikaze.healthgo;
+
+import static org.junit.Assume.assumeTrue;
+
+
+/**
+ * Timing runs are skipped in a plain {@code ./gradlew test}; they print
+ * their numbers with {@code ./gradlew test -Pbenchmarks}.
+ */
+public class Benchmarks {
+
+    public static void assumeEnabled() {
+        assumeTrue("benchmarks run with -Pbenchmarks", Boolean.getBoolean("benchmarks"));
+    }
+}
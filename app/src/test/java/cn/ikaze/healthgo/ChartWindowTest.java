@@ -0,0 +1,70 @@
+package cn.ikaze.healthgo;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+
+public class ChartWindowTest {
+
+    private static final int TODAY = 20744;
+
+    private ChartWindow window;
+
+    @Before
+    public void setUp() {
+        window = new ChartWindow(4);
+        window.load(TODAY, new long[]{100, 200, 300, 400});
+    }
+
+    @Test
+    public void set_changesOnlyTheGivenDay() throws Exception {
+        assertTrue(window.set(TODAY, 401));
+        assertFalse(window.set(TODAY, 401));
+        assertFalse(window.set(TODAY - 4, 5));
+        assertFalse(window.set(TODAY + 1, 5));
+        assertEquals(401, window.get(TODAY));
+        assertEquals(100, window.get(TODAY - 3));
+        assertEquals(-1, window.get(TODAY - 4));
+    }
+
+    @Test
+    public void advance_evictsOldestAndAppendsEmptyDays() throws Exception {
+        assertEquals(1, window.advanceTo(TODAY + 1));
+        assertEquals(TODAY - 2, window.getFirstDay());
+        assertEquals(200, window.getAt(0));
+        assertEquals(400, window.getAt(2));
+        assertEquals(0, window.getAt(3));
+
+        window.set(TODAY + 1, 50);
+        assertEquals(2, window.advanceTo(TODAY + 3));
+        assertEquals(400, window.getAt(0));
+        assertEquals(50, window.getAt(1));
+        assertEquals(0, window.get(TODAY + 3));
+    }
+
+    @Test
+    public void advance_pastTheWholeWindowClearsIt() throws Exception {
+        assertEquals(0, window.advanceTo(TODAY));
+        assertEquals(4, window.advanceTo(TODAY + 30));
+        for (int i = 0; i < window.size(); i++)
+            assertEquals(0, window.getAt(i));
+        assertEquals(TODAY + 27, window.getFirstDay());
+    }
+
+    @Test
+    public void load_takesTheLastDaysOfLongerData() throws Exception {
+        window.load(TODAY, new long[]{1, 2, 3, 4, 5, 6});
+        assertEquals(3, window.getAt(0));
+        assertEquals(6, window.get(TODAY));
+    }
+
+    @Test
+    public void load_padsShorterDataWithEmptyDays() throws Exception {
+        window.load(TODAY, new long[]{7, 8});
+        assertEquals(0, window.getAt(1));
+        assertEquals(7, window.getAt(2));
+        assertEquals(8, window.get(TODAY));
+    }
+}
@@ -0,0 +1,135 @@
+package cn.ikaze.healthgo;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+
+public class DayClockTest {
+
+    private static final long HOUR = 3600000L;
+
+    private TimeZone saved;
+
+    @Before
+    public void setUp() {
+        saved = TimeZone.getDefault();
+    }
+
+    @After
+    public void tearDown() {
+        TimeZone.setDefault(saved);
+    }
+
+    @Test
+    public void isNewDay_flipsAtLocalMidnight() throws Exception {
+        TimeZone.setDefault(TimeZone.getTimeZone("Asia/Shanghai"));
+        long noon = at(2026, Calendar.OCTOBER, 18, 12);
+        DayClock clock = new DayClock();
+        clock.reset(noon);
+
+        assertEquals(at(2026, Calendar.OCTOBER, 18, 0), clock.getDayStart());
+        assertFalse(clock.isNewDay(clock.getNextMidnight() - 1));
+        assertTrue(clock.isNewDay(clock.getNextMidnight()));
+
+        assertTrue(clock.reset(clock.getNextMidnight()));
+        assertEquals(at(2026, Calendar.OCTOBER, 19, 0), clock.getDayStart());
+        assertFalse(clock.reset(clock.getDayStart() + HOUR));
+    }
+
+    @Test
+    public void reset_handlesDaylightSavingDays() throws Exception {
+        TimeZone.setDefault(TimeZone.getTimeZone("Europe/Berlin"));
+        DayClock clock = new DayClock();
+
+        clock.reset(at(2026, Calendar.MARCH, 29, 12));
+        assertEquals(23 * HOUR, clock.getNextMidnight() - clock.getDayStart());
+        clock.reset(at(2026, Calendar.OCTOBER, 25, 12));
+        assertEquals(25 * HOUR, clock.getNextMidnight() - clock.getDayStart());
+    }
+
+    @Test
+    public void reset_followsTimeZoneChange() throws Exception {
+        TimeZone.setDefault(TimeZone.getTimeZone("Asia/Shanghai"));
+        long now = at(2026, Calendar.OCTOBER, 18, 2);
+        DayClock clock = new DayClock();
+        clock.reset(now);
+
+        // Flying west: 02:00 in Shanghai is still the previous evening in London
+        TimeZone.setDefault(TimeZone.getTimeZone("Europe/London"));
+        assertTrue(clock.reset(now));
+        assertEquals(at(2026, Calendar.OCTOBER, 17, 0), clock.getDayStart());
+    }
+
+    @Test
+    public void epochDay_isTheLocalCalendarDay() throws Exception {
+        TimeZone.setDefault(TimeZone.getTimeZone("Asia/Shanghai"));
+        // 2026-10-18 00:30 in Shanghai is still the 17th in UTC
+        long early = at(2026, Calendar.OCTOBER, 18, 0) + HOUR / 2;
+        assertEquals(20744, DateTimeHelper.toEpochDay(early));
+        assertEquals(20743, DateTimeHelper.toEpochDay(early, TimeZone.getTimeZone("UTC")));
+        assertEquals(at(2026, Calendar.OCTOBER, 18, 0), DateTimeHelper.fromEpochDay(20744).getTime());
+        assertEquals("10.18", DateTimeHelper.getDayLabel(20744));
+
+        TimeZone.setDefault(TimeZone.getTimeZone("America/Los_Angeles"));
+        assertEquals(-1, DateTimeHelper.toEpochDay(0));
+        assertEquals(at(1969, Calendar.DECEMBER, 31, 0), DateTimeHelper.fromEpochDay(-1).getTime());
+    }
+
+    @Test
+    public void getDay_followsReset() throws Exception {
+        TimeZone.setDefault(TimeZone.getTimeZone("Europe/Berlin"));
+        DayClock clock = new DayClock();
+        clock.reset(at(2026, Calendar.OCTOBER, 25, 23));
+        assertEquals(20751, clock.getDay());
+        clock.reset(clock.getNextMidnight());
+        assertEquals(20752, clock.getDay());
+    }
+
+    @Test
+    public void benchmark_dayCheck() throws Exception {
+        Benchmarks.assumeEnabled();
+        int n = 200000;
+        Date today = DateTimeHelper.getToday();
+        DayClock clock = new DayClock();
+        int changes = 0;
+
+        // Warm up both paths
+        for (int i = 0; i < n; i++) {
+            if (!today.equals(DateTimeHelper.getToday()))
+                changes++;
+            if (clock.isNewDay(System.currentTimeMillis()))
+                changes++;
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            if (!today.equals(DateTimeHelper.getToday()))
+                changes++;
+        }
+        long old = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            if (clock.isNewDay(System.currentTimeMillis()))
+                changes++;
+        }
+        long now = System.nanoTime() - start;
+
+        System.out.println(String.format("day check: DateTimeHelper.getToday %.1f ns/op, DayClock %.1f ns/op (%d)",
+                (double) old / n, (double) now / n, changes));
+    }
+
+    private static long at(int year, int month, int day, int hour) {
+        Calendar c = Calendar.getInstance();
+        c.clear();
+        c.set(year, month, day, hour, 0);
+        return c.getTimeInMillis();
+    }
+}
@@ -0,0 +1,93 @@
+package cn.ikaze.healthgo;
+
+import org.junit.Test;
+
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * Times the decimator on 100k and 1M point series, one frame per select:
+ * the first full view, panning at a fixed zoom and zooming in and out,
+ * against rescanning the visible range for every frame.
+ */
+public class DecimatorBenchmark {
+
+    private static final int COLUMNS = 540;
+    private static final int FRAMES = 200;
+
+    @Test
+    public void series() throws Exception {
+        Benchmarks.assumeEnabled();
+        for (int n : new int[]{100000, 1000000}) {
+            long[] data = DecimatorTest.randomWalk(n, n);
+            run(data);
+        }
+    }
+
+    private void run(long[] data) {
+        int[] out = new int[Decimator.capacity(COLUMNS)];
+        Decimator decimator = new Decimator(data);
+
+        long start = System.nanoTime();
+        int points = decimator.select(0, data.length, COLUMNS, out);
+        long cold = System.nanoTime() - start;
+        assertTrue(points <= out.length);
+
+        // Pan a tenth of the series across, 1% of it per frame
+        int span = data.length / 10;
+        start = System.nanoTime();
+        for (int frame = 0; frame < FRAMES; frame++) {
+            int from = (int) ((long) frame * (data.length - span) / FRAMES);
+            decimator.select(from, from + span, COLUMNS, out);
+        }
+        long pan = (System.nanoTime() - start) / FRAMES;
+
+        start = System.nanoTime();
+        long sink = 0;
+        for (int frame = 0; frame < FRAMES; frame++) {
+            int from = (int) ((long) frame * (data.length - span) / FRAMES);
+            sink += scan(data, from, from + span, COLUMNS, out);
+        }
+        long panScan = (System.nanoTime() - start) / FRAMES;
+
+        // Pinch from everything down to a week and back out
+        start = System.nanoTime();
+        int zoomFrames = 0;
+        for (int round = 0; round < 5; round++) {
+            for (int s = data.length; s >= 7; s = s * 9 / 10, zoomFrames++)
+                decimator.select(data.length - s, data.length, COLUMNS, out);
+            for (int s = 7; s <= data.length; s = s * 10 / 9 + 1, zoomFrames++)
+                decimator.select(data.length - s, data.length, COLUMNS, out);
+        }
+        long zoom = (System.nanoTime() - start) / zoomFrames;
+
+        System.out.println(String.format(Locale.US,
+                "%d points -> %d: first %.2f ms, pan %.1f us/frame (rescan %.1f), zoom %.1f us/frame%s",
+                data.length, points, cold / 1e6, pan / 1e3, panScan / 1e3, zoom / 1e3,
+                sink == 42 ? "!" : ""));
+    }
+
+    /**
+     * Min/max per column from scratch, what a chart without the cache does.
+     */
+    private static int scan(long[] data, int from, int to, int columns, int[] out) {
+        int size = 1 << Decimator.level(to - from, columns);
+        int n = 0;
+        for (int start = from; start < to; start += size) {
+            int end = Math.min(to, start + size);
+            int lo = start;
+            int hi = start;
+            for (int i = start + 1; i < end; i++) {
+                if (data[i] < data[lo])
+                    lo = i;
+                if (data[i] > data[hi])
+                    hi = i;
+            }
+            out[n++] = Math.min(lo, hi);
+            out[n++] = Math.max(lo, hi);
+        }
+        return n;
+    }
+}
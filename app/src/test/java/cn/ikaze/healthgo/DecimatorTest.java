@@ -0,0 +1,117 @@
+package cn.ikaze.healthgo;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+
+public class DecimatorTest {
+
+    static long[] randomWalk(int n, long seed) {
+        Random random = new Random(seed);
+        long[] data = new long[n];
+        long v = 5000;
+        for (int i = 0; i < n; i++) {
+            v = Math.max(0, v + random.nextInt(2001) - 1000);
+            data[i] = v;
+        }
+        return data;
+    }
+
+    /**
+     * Every bucket in the range must be represented by its minimum and maximum.
+     */
+    private static void assertMinMax(long[] data, int from, int to, int columns, int[] out, int n) {
+        int level = Decimator.level(to - from, columns);
+        int size = 1 << level;
+        assertTrue("too many points", n <= Decimator.capacity(columns));
+        int k = 0;
+        for (int start = from >> level << level; start < to; start += size) {
+            int end = Math.min(data.length, start + size);
+            long min = Long.MAX_VALUE;
+            long max = Long.MIN_VALUE;
+            for (int i = start; i < end; i++) {
+                min = Math.min(min, data[i]);
+                max = Math.max(max, data[i]);
+            }
+            assertTrue(out[k] >= start && out[k] < end);
+            long a = data[out[k++]];
+            long b = a;
+            if (min != max) {
+                assertTrue(out[k] > out[k - 1] && out[k] < end);
+                b = data[out[k++]];
+            }
+            assertEquals(min, Math.min(a, b));
+            assertEquals(max, Math.max(a, b));
+        }
+        assertEquals(n, k);
+    }
+
+    @Test
+    public void shortRange_isNotDecimated() throws Exception {
+        Decimator decimator = new Decimator(randomWalk(100, 1));
+        int[] out = new int[Decimator.capacity(200)];
+        assertEquals(60, decimator.select(10, 70, 200, out));
+        assertEquals(10, out[0]);
+        assertEquals(69, out[59]);
+        assertEquals(0, decimator.select(90, 90, 200, out));
+    }
+
+    @Test
+    public void spike_survivesDecimation() throws Exception {
+        long[] data = randomWalk(100000, 2);
+        data[54321] = 10000000;
+        data[7777] = -1;
+        Decimator decimator = new Decimator(data);
+        int[] out = new int[Decimator.capacity(300)];
+        int n = decimator.select(0, data.length, 300, out);
+        boolean peak = false;
+        boolean low = false;
+        for (int i = 0; i < n; i++) {
+            peak |= out[i] == 54321;
+            low |= out[i] == 7777;
+        }
+        assertTrue(peak && low);
+        assertMinMax(data, 0, data.length, 300, out, n);
+    }
+
+    @Test
+    public void scrollAndZoom_matchFullScan() throws Exception {
+        long[] data = randomWalk(100003, 3);
+        Decimator decimator = new Decimator(data);
+        int columns = 250;
+        int[] out = new int[Decimator.capacity(columns)];
+        Random random = new Random(4);
+        int from = 0;
+        int span = data.length;
+        for (int frame = 0; frame < 300; frame++) {
+            if (frame % 10 == 0)
+                span = Math.max(1, span / (random.nextBoolean() ? 2 : 1) * (random.nextBoolean() ? 2 : 1));
+            span = Math.min(span, data.length);
+            from = Math.max(0, Math.min(data.length - span, from + random.nextInt(span / 4 + 1) - span / 8));
+            int n = decimator.select(from, from + span, columns, out);
+            assertMinMax(data, from, from + span, columns, out, n);
+        }
+    }
+
+    @Test
+    public void set_updatesOnlyAffectedBuckets() throws Exception {
+        long[] data = randomWalk(50000, 5);
+        Decimator decimator = new Decimator(data);
+        int[] out = new int[Decimator.capacity(100)];
+        // Warm a coarse and a fine level
+        decimator.select(0, data.length, 400, new int[Decimator.capacity(400)]);
+        decimator.select(0, data.length, 100, out);
+
+        decimator.set(data.length - 1, 99999999);
+        int n = decimator.select(0, data.length, 100, out);
+        assertEquals(data.length - 1, out[n - 1]);
+        assertMinMax(data, 0, data.length, 100, out, n);
+
+        decimator.set(data.length - 1, 0);
+        n = decimator.select(0, data.length, 100, out);
+        assertMinMax(data, 0, data.length, 100, out, n);
+    }
+}
@@ -0,0 +1,42 @@
+package cn.ikaze.healthgo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+
+public class StepDisplayTest {
+
+    @Test
+    public void bucket_followsDigitCount() throws Exception {
+        assertEquals(0, StepDisplay.bucket(0));
+        assertEquals(0, StepDisplay.bucket(9999));
+        assertEquals(1, StepDisplay.bucket(10000));
+        assertEquals(2, StepDisplay.bucket(100000));
+        assertEquals(3, StepDisplay.bucket(9999999));
+        assertEquals(4, StepDisplay.bucket(10000000));
+        assertEquals(4, StepDisplay.bucket(Long.MAX_VALUE));
+        assertEquals(66, StepDisplay.textSize(0), 0);
+        assertEquals(45, StepDisplay.textSize(4), 0);
+        assertEquals(4, StepDisplay.maxDigits(0));
+        assertEquals(Long.toString(99999999).length(), StepDisplay.maxDigits(4));
+    }
+
+    @Test
+    public void update_changesSizeOnlyAcrossBuckets() throws Exception {
+        StepDisplay display = new StepDisplay();
+        assertTrue(display.update(9990));
+        for (long steps = 9991; steps < 10000; steps++)
+            assertFalse(display.update(steps));
+        assertTrue(display.update(10000));
+        assertFalse(display.update(10001));
+        assertEquals(1, display.getBucket());
+        display.addTime(12000);
+
+        assertEquals(12, display.getUpdates());
+        assertEquals(2, display.getSizeChanges());
+        assertEquals(12000, display.getUpdateNs());
+        display.onLayout();
+        assertEquals("ui 12 updates, 2 size changes, 1 layouts, 0.0 ms", display.report());
+    }
+}
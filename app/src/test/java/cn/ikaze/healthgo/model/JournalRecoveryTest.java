@@ -0,0 +1,144 @@
+package cn.ikaze.healthgo.model;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * Replays a journal left behind by a killed process into buckets saved
+ * along the way. A map of encoded buckets and sequence numbers stands in for
+ * StepSeriesModel.
+ */
+public class JournalRecoveryTest {
+
+    private static final int DAY = 17000;
+    private static final long MINUTE = 60000;
+    private static final long MIDNIGHT = DAY * 86400000L;
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    private File file;
+    private final Map<Integer, byte[]> savedBuckets = new HashMap<>();
+    private final Map<Integer, Long> savedSeqs = new HashMap<>();
+    private long total;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("step_journal", null);
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void replay_killedBetweenSaveAndCompaction_countsEachStepOnce() throws Exception {
+        StepJournal journal = new StepJournal(file, 64);
+        StepSeries live = new StepSeries(DAY, 1, UTC);
+        for (int i = 0; i < 10; i++)
+            step(journal, live, MIDNIGHT + i * MINUTE, 3);
+        // The save commits, then the process dies before compactThrough
+        save(live, journal.nextSeq());
+        for (int i = 10; i < 14; i++)
+            step(journal, live, MIDNIGHT + i * MINUTE, 2);
+
+        JournalRecovery recovery = recover(new StepJournal(file, 64));
+
+        StepSeries recovered = recovery.getSeries().iterator().next();
+        assertArrayEquals(live.getBuckets(), recovered.getBuckets());
+        assertEquals(38, recovered.total());
+        assertEquals(38, recovery.getTotal(DAY));
+        assertEquals(14, recovered.getJournalSeq());
+        journal.close();
+    }
+
+    @Test
+    public void replay_killedAgainBeforeClear_countsEachStepOnce() throws Exception {
+        StepJournal journal = new StepJournal(file, 64);
+        StepSeries live = new StepSeries(DAY, 1, UTC);
+        for (int i = 0; i < 5; i++)
+            step(journal, live, MIDNIGHT + i * MINUTE, 4);
+
+        StepJournal reopened = new StepJournal(file, 64);
+        StepSeries first = recover(reopened).getSeries().iterator().next();
+        // Recovered buckets are saved, then the process dies before clear
+        save(first, reopened.nextSeq());
+        StepSeries second = recover(new StepJournal(file, 64)).getSeries().iterator().next();
+
+        assertArrayEquals(live.getBuckets(), second.getBuckets());
+        assertEquals(20, second.total());
+        journal.close();
+        reopened.close();
+    }
+
+    @Test
+    public void replay_addsRecordsOfDaysWithoutSavedBuckets() throws Exception {
+        StepJournal journal = new StepJournal(file, 64);
+        StepSeries today = new StepSeries(DAY, 1, UTC);
+        step(journal, today, MIDNIGHT, 5);
+        save(today, journal.nextSeq());
+        journal.compactThrough(journal.nextSeq());
+        StepSeries tomorrow = new StepSeries(DAY + 1, 1, UTC);
+        journal.append(MIDNIGHT + 86400000L, DAY + 1, 7, 7);
+        tomorrow.add(MIDNIGHT + 86400000L, 7);
+
+        JournalRecovery recovery = recover(journal);
+        assertEquals(1, recovery.getSeries().size());
+        StepSeries recovered = recovery.getSeries().iterator().next();
+        assertEquals(DAY + 1, recovered.getDay());
+        assertArrayEquals(tomorrow.getBuckets(), recovered.getBuckets());
+        assertEquals(7, recovery.getTotal(DAY + 1));
+        journal.close();
+    }
+
+    @Test
+    public void getTotal_rollsUpBucketsAboveRunningTotals() throws Exception {
+        StepJournal journal = new StepJournal(file, 64);
+        StepSeries live = new StepSeries(DAY, 1, UTC);
+        live.add(MIDNIGHT, 100);
+        save(live, 0);
+        // Counted before the day's saved 100 steps were read back
+        step(journal, live, MIDNIGHT + MINUTE, 4);
+        step(journal, live, MIDNIGHT + 2 * MINUTE, 6);
+
+        JournalRecovery recovery = recover(journal);
+        assertEquals(110, recovery.getTotal(DAY));
+        journal.close();
+    }
+
+    private void step(StepJournal journal, StepSeries live, long time, int steps) {
+        total += steps;
+        live.add(time, steps);
+        assertTrue(journal.append(time, live.getDay(), steps, total));
+    }
+
+    private void save(StepSeries series, long journalSeq) {
+        savedBuckets.put(series.getDay(), series.encode());
+        savedSeqs.put(series.getDay(), journalSeq);
+    }
+
+    private JournalRecovery recover(StepJournal journal) {
+        JournalRecovery recovery = new JournalRecovery(new JournalRecovery.Days() {
+            @Override
+            public StepSeries load(int day) {
+                StepSeries series = new StepSeries(day, 1, UTC);
+                if (savedBuckets.containsKey(day)) {
+                    series.load(savedBuckets.get(day));
+                    series.setJournalSeq(savedSeqs.get(day));
+                }
+                return series;
+            }
+        });
+        journal.replay(recovery);
+        return recovery;
+    }
+}
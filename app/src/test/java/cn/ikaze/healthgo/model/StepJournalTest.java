@@ -0,0 +1,193 @@
+package cn.ikaze.healthgo.model;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+
+public class StepJournalTest {
+
+    private static final int DAY = 17000;
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("step_journal", null);
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void records_surviveReopen() throws Exception {
+        StepJournal journal = new StepJournal(file, 16);
+        journal.append(1000, DAY, 1, 101);
+        journal.append(2000, DAY, 5, 106);
+        // No close: the process is killed
+        StepJournal reopened = new StepJournal(file, 16);
+
+        List<long[]> records = read(reopened);
+        assertEquals(2, records.size());
+        assertArrayEquals(new long[]{1, 2000, DAY, 5, 106}, records.get(1));
+        journal.close();
+        reopened.close();
+    }
+
+    @Test
+    public void compactThrough_dropsSavedRecordsOnly() throws Exception {
+        StepJournal journal = new StepJournal(file, 16);
+        journal.append(1000, DAY, 1, 1);
+        journal.append(2000, DAY, 1, 2);
+        long saved = journal.nextSeq();
+        journal.append(3000, DAY, 1, 3);
+
+        journal.compactThrough(saved);
+        // A late duplicate of the same compaction changes nothing
+        journal.compactThrough(saved);
+
+        List<long[]> records = read(journal);
+        assertEquals(1, records.size());
+        assertArrayEquals(new long[]{saved, 3000, DAY, 1, 3}, records.get(0));
+        assertEquals(saved + 1, journal.nextSeq());
+        journal.close();
+
+        StepJournal reopened = new StepJournal(file, 16);
+        assertEquals(1, reopened.size());
+        assertEquals(saved + 1, reopened.nextSeq());
+        reopened.clear();
+        assertEquals(0, reopened.size());
+        reopened.close();
+    }
+
+    @Test
+    public void append_failsWhenFull() throws Exception {
+        StepJournal journal = new StepJournal(file, 2);
+        assertTrue(journal.append(1, DAY, 1, 1));
+        assertTrue(journal.append(2, DAY, 1, 2));
+        assertTrue(journal.isFull());
+        assertFalse(journal.append(3, DAY, 1, 3));
+        journal.compactThrough(1);
+        assertTrue(journal.append(3, DAY, 1, 3));
+        journal.close();
+    }
+
+    @Test
+    public void records_keepSequenceAcrossWrapAround() throws Exception {
+        StepJournal journal = new StepJournal(file, 4);
+        for (int i = 0; i < 3; i++)
+            journal.append(i, DAY, 1, i + 1);
+        journal.compactThrough(2);
+        for (int i = 3; i < 6; i++)
+            assertTrue(journal.append(i, DAY, 1, i + 1));
+        assertTrue(journal.isFull());
+        journal.close();
+
+        StepJournal reopened = new StepJournal(file, 4);
+        List<long[]> records = read(reopened);
+        assertEquals(4, records.size());
+        for (int i = 0; i < 4; i++)
+            assertArrayEquals(new long[]{i + 2, i + 2, DAY, 1, i + 3}, records.get(i));
+        reopened.close();
+    }
+
+    @Test
+    public void skipTo_movesEmptyJournalOnly() throws Exception {
+        StepJournal journal = new StepJournal(file, 4);
+        journal.skipTo(100);
+        assertEquals(100, journal.nextSeq());
+        journal.append(1, DAY, 1, 1);
+        journal.skipTo(200);
+        assertEquals(101, journal.nextSeq());
+        journal.close();
+
+        StepJournal reopened = new StepJournal(file, 4);
+        assertEquals(100, read(reopened).get(0)[0]);
+        reopened.close();
+    }
+
+    @Test
+    public void open_readsVersion2RecordsUntilCompacted() throws Exception {
+        RandomAccessFile raw = new RandomAccessFile(file, "rw");
+        raw.writeInt(0x48474A4C);
+        raw.writeInt(2);
+        raw.writeInt(2);
+        raw.writeInt(0);
+        raw.writeLong(10);
+        for (int i = 0; i < 2; i++) {
+            raw.writeLong(1000 * i);
+            raw.writeLong(DAY);
+            raw.writeInt(1);
+            raw.writeInt(i + 1);
+        }
+        raw.close();
+
+        StepJournal journal = new StepJournal(file, 16);
+        List<long[]> records = read(journal);
+        assertEquals(2, records.size());
+        assertArrayEquals(new long[]{11, 1000, DAY, 1, 2}, records.get(1));
+        // Old records stay where they are until they are all saved
+        assertFalse(journal.append(2000, DAY, 1, 3));
+        journal.clear();
+        assertTrue(journal.append(2000, DAY, 1, 3));
+        journal.close();
+
+        StepJournal reopened = new StepJournal(file, 16);
+        records = read(reopened);
+        assertEquals(1, records.size());
+        assertArrayEquals(new long[]{12, 2000, DAY, 1, 3}, records.get(0));
+        reopened.close();
+    }
+
+    @Test
+    public void open_upgradesMillisDays() throws Exception {
+        TimeZone saved = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("Asia/Shanghai"));
+        try {
+            // A version 1 journal holding local midnight of day 17000 in millis
+            RandomAccessFile raw = new RandomAccessFile(file, "rw");
+            raw.writeInt(0x48474A4C);
+            raw.writeInt(1);
+            raw.writeInt(1);
+            raw.writeInt(0);
+            raw.writeLong(0);
+            raw.writeLong(86400000L * DAY + 1000);
+            raw.writeLong(86400000L * DAY - 8 * 3600000L);
+            raw.writeInt(3);
+            raw.writeInt(42);
+            raw.close();
+
+            StepJournal journal = new StepJournal(file, 16);
+            assertArrayEquals(new long[]{0, 86400000L * DAY + 1000, DAY, 3, 42}, read(journal).get(0));
+            journal.close();
+            // Already upgraded: reopening leaves the day alone
+            StepJournal reopened = new StepJournal(file, 16);
+            assertEquals(DAY, read(reopened).get(0)[2]);
+            reopened.close();
+        } finally {
+            TimeZone.setDefault(saved);
+        }
+    }
+
+    private static List<long[]> read(StepJournal journal) {
+        final List<long[]> records = new ArrayList<>();
+        journal.replay(new StepJournal.Visitor() {
+            @Override
+            public void record(long seq, long time, int day, int delta, long total) {
+                records.add(new long[]{seq, time, day, delta, total});
+            }
+        });
+        return records;
+    }
+}
@@ -0,0 +1,107 @@
+package cn.ikaze.healthgo.model;
+
+import org.junit.Test;
+
+import java.util.Calendar;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+
+public class StepSeriesTest {
+
+    private static final long MINUTE = 60000;
+
+    @Test
+    public void codec_roundTripsSparseDay() throws Exception {
+        int[] buckets = new int[1440];
+        buckets[0] = 3;
+        buckets[480] = 120;
+        buckets[481] = 95;
+        buckets[1439] = 70000;
+
+        byte[] data = BucketCodec.encode(buckets, buckets.length);
+        int[] decoded = new int[1440];
+        assertEquals(1440, BucketCodec.decodeInto(data, decoded, 0));
+        assertArrayEquals(buckets, decoded);
+    }
+
+    @Test
+    public void codec_keepsYearOfMinuteBucketsSmall() throws Exception {
+        Random random = new Random(1);
+        long bytes = 0;
+        int[] buckets = new int[1440];
+        for (int day = 0; day < 365; day++) {
+            java.util.Arrays.fill(buckets, 0);
+            // Three hours of scattered walking a day
+            for (int i = 0; i < 180; i++)
+                buckets[420 + random.nextInt(900)] = 20 + random.nextInt(100);
+            bytes += BucketCodec.encode(buckets, buckets.length).length;
+        }
+        assertTrue("year of minute buckets: " + bytes + " bytes", bytes < 200 * 1024);
+    }
+
+    @Test
+    public void add_bucketsByWallClock() throws Exception {
+        TimeZone zone = TimeZone.getTimeZone("UTC");
+        StepSeries series = new StepSeries(0, 15, zone);
+        series.add(7 * 60 * MINUTE + 14 * MINUTE, 10);
+        series.add(7 * 60 * MINUTE + 15 * MINUTE, 5);
+        assertEquals(96, series.getBuckets().length);
+        assertEquals(10, series.getBuckets()[28]);
+        assertEquals(5, series.getBuckets()[29]);
+        assertEquals(15, series.total());
+
+        StepSeries reloaded = new StepSeries(0, 15, zone);
+        reloaded.load(series.encode());
+        assertArrayEquals(series.getBuckets(), reloaded.getBuckets());
+    }
+
+    @Test
+    public void bucketMinutes_mustDivideDay() throws Exception {
+        TimeZone zone = TimeZone.getTimeZone("UTC");
+        for (int minutes : new int[]{1, 15, 60, 1440})
+            assertEquals(1440 / minutes, new StepSeries(0, minutes, zone).getBuckets().length);
+        for (int minutes : new int[]{0, -5, 7, 1441}) {
+            assertFalse(StepSeries.isValidBucketMinutes(minutes));
+            try {
+                new StepSeries(0, minutes, zone);
+                fail("accepted " + minutes);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void addAll_mergesStepsCountedWhileLoading() throws Exception {
+        TimeZone zone = TimeZone.getTimeZone("UTC");
+        StepSeries stored = new StepSeries(0, 15, zone);
+        stored.add(7 * 60 * MINUTE, 40);
+        StepSeries counted = new StepSeries(0, 15, zone);
+        counted.add(7 * 60 * MINUTE + MINUTE, 2);
+        counted.add(8 * 60 * MINUTE, 3);
+
+        stored.addAll(counted);
+        assertEquals(42, stored.getBuckets()[28]);
+        assertEquals(3, stored.getBuckets()[32]);
+        assertEquals(45, stored.total());
+    }
+
+    @Test
+    public void add_foldsRepeatedDaylightSavingHour() throws Exception {
+        TimeZone zone = TimeZone.getTimeZone("Europe/Berlin");
+        Calendar c = Calendar.getInstance(zone);
+        c.clear();
+        c.set(2026, Calendar.OCTOBER, 25);
+        long midnight = c.getTimeInMillis();
+        StepSeries series = new StepSeries(20751, 60, zone);
+
+        // 02:30 happens twice on this day; 12:00 comes 13 real hours after midnight
+        series.add(midnight + 150 * MINUTE, 1);
+        series.add(midnight + 210 * MINUTE, 1);
+        series.add(midnight + 13 * 60 * MINUTE, 1);
+        assertEquals(2, series.getBuckets()[2]);
+        assertEquals(1, series.getBuckets()[12]);
+    }
+}
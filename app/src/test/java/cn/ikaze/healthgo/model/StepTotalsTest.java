@@ -0,0 +1,109 @@
+package cn.ikaze.healthgo.model;
+
+import org.junit.Test;
+
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+
+public class StepTotalsTest {
+
+    private static final long DAY = 86400000L;
+
+    @Test
+    public void periods_matchTheCalendar() throws Exception {
+        Calendar c = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        c.setFirstDayOfWeek(Calendar.MONDAY);
+        for (int day = -800; day < 40000; day++) {
+            c.setTimeInMillis(day * DAY);
+            int month = StepPeriods.period(StepPeriods.MONTH, day);
+            assertEquals(c.get(Calendar.YEAR) * 12 + c.get(Calendar.MONTH), month);
+            assertEquals(c.get(Calendar.YEAR), StepPeriods.period(StepPeriods.YEAR, day));
+            int week = StepPeriods.period(StepPeriods.WEEK, day);
+            int monday = StepPeriods.firstDay(StepPeriods.WEEK, week);
+            assertTrue(day >= monday && day <= monday + 6);
+            c.setTimeInMillis(monday * DAY);
+            assertEquals(Calendar.MONDAY, c.get(Calendar.DAY_OF_WEEK));
+            for (int kind = 0; kind < StepPeriods.KINDS; kind++) {
+                int period = StepPeriods.period(kind, day);
+                assertTrue(StepPeriods.firstDay(kind, period) <= day);
+                assertTrue(StepPeriods.lastDay(kind, period) >= day);
+            }
+        }
+    }
+
+    @Test
+    public void periods_knownDays() throws Exception {
+        // 2026-10-18, a Sunday
+        int day = 20744;
+        assertEquals(2026 * 12 + 9, StepPeriods.period(StepPeriods.MONTH, day));
+        assertEquals(20727, StepPeriods.firstDay(StepPeriods.MONTH, 2026 * 12 + 9));
+        assertEquals(20757, StepPeriods.lastDay(StepPeriods.MONTH, 2026 * 12 + 9));
+        assertEquals(day - 6, StepPeriods.firstDay(StepPeriods.WEEK, StepPeriods.period(StepPeriods.WEEK, day)));
+        // 2024 is a leap year
+        assertEquals(366, StepPeriods.lastDay(StepPeriods.YEAR, 2024) - StepPeriods.firstDay(StepPeriods.YEAR, 2024) + 1);
+        assertEquals(29, StepPeriods.lastDay(StepPeriods.MONTH, 2024 * 12 + 1) - StepPeriods.firstDay(StepPeriods.MONTH, 2024 * 12 + 1) + 1);
+        assertNotEquals(StepPeriods.key(StepPeriods.WEEK, 5), StepPeriods.key(StepPeriods.MONTH, 5));
+        assertNotEquals(StepPeriods.key(StepPeriods.WEEK, -1), StepPeriods.key(StepPeriods.MONTH, -1));
+    }
+
+    /**
+     * Two years of writes, counts going up through each day and sometimes
+     * down, kept incrementally and compared with totals built from scratch.
+     */
+    @Test
+    public void incremental_matchesRebuild() throws Exception {
+        Random random = new Random(7);
+        final Map<Integer, Long> days = new HashMap<>();
+        StepTotals.Days stored = new StepTotals.Days() {
+            @Override
+            public long maxSteps(int firstDay, int lastDay) {
+                return max(days, firstDay, lastDay);
+            }
+        };
+        Map<Long, StepTotals> incremental = new HashMap<>();
+        StepTotals[] totals = new StepTotals[StepPeriods.KINDS];
+        int first = StepPeriods.firstDay(StepPeriods.YEAR, 2024);
+        for (int write = 0; write < 30000; write++) {
+            int day = first + random.nextInt(731);
+            Long before = days.get(day);
+            long after = before == null ? random.nextInt(500) : random.nextInt(10) == 0
+                    ? Math.max(0, before - random.nextInt(3000)) : before + random.nextInt(800);
+            days.put(day, after);
+            // What StepAggregates keeps as rows
+            for (int kind = 0; kind < StepPeriods.KINDS; kind++) {
+                long key = StepPeriods.key(kind, StepPeriods.period(kind, day));
+                totals[kind] = incremental.get(key);
+                if (totals[kind] == null) {
+                    totals[kind] = new StepTotals();
+                    incremental.put(key, totals[kind]);
+                }
+            }
+            StepTotals.update(totals, day, before != null, before == null ? 0 : before, after, stored);
+        }
+
+        Map<Long, StepTotals> rebuilt = new HashMap<>();
+        for (Map.Entry<Integer, Long> entry : days.entrySet())
+            StepTotals.accumulate(rebuilt, entry.getKey(), entry.getValue());
+        assertEquals(rebuilt, incremental);
+
+        StepTotals year = rebuilt.get(StepPeriods.key(StepPeriods.YEAR, 2024));
+        assertEquals(366, year.getDays());
+        assertEquals((double) year.getTotalSteps() / 366, year.getAverage(), 1e-9);
+    }
+
+    private static long max(Map<Integer, Long> days, int from, int to) {
+        long max = 0;
+        for (int day = from; day <= to; day++) {
+            Long steps = days.get(day);
+            if (steps != null)
+                max = Math.max(max, steps);
+        }
+        return max;
+    }
+}
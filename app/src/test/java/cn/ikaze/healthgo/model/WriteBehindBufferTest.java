@@ -0,0 +1,75 @@
+package cn.ikaze.healthgo.model;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+
+public class WriteBehindBufferTest {
+
+    private static final int DAY1 = 17000;
+    private static final int DAY2 = 17001;
+
+    private final List<Object[]> writes = new ArrayList<>();
+    private WriteBehindBuffer buffer;
+
+    @Before
+    public void setUp() {
+        buffer = new WriteBehindBuffer(new WriteBehindBuffer.Sink() {
+            @Override
+            public void write(int day, long num) {
+                writes.add(new Object[]{day, num});
+            }
+        }, 60000, 100);
+        buffer.restore(DAY1, 500);
+    }
+
+    @Test
+    public void update_coalescesUntilStepLimit() throws Exception {
+        for (long n = 501; n < 600; n++)
+            assertFalse(buffer.update(DAY1, n, 10));
+        assertTrue(writes.isEmpty());
+
+        assertTrue(buffer.update(DAY1, 600, 10));
+        assertEquals(1, writes.size());
+        assertEquals(600L, writes.get(0)[1]);
+        assertEquals(1, buffer.getFlushCount());
+        assertFalse(buffer.isDirty());
+    }
+
+    @Test
+    public void flushIfDue_writesAfterMaxDelay() throws Exception {
+        buffer.update(DAY1, 501, 1000);
+        buffer.update(DAY1, 502, 30000);
+        assertEquals(61000, buffer.getDeadline());
+        assertFalse(buffer.flushIfDue(60999));
+        assertTrue(buffer.flushIfDue(61000));
+        assertEquals(502L, writes.get(0)[1]);
+        assertEquals(-1, buffer.getDeadline());
+    }
+
+    @Test
+    public void update_writesPreviousDayOnRollover() throws Exception {
+        buffer.update(DAY1, 520, 0);
+        buffer.update(DAY2, 1, 5);
+        assertEquals(1, writes.size());
+        assertEquals(DAY1, writes.get(0)[0]);
+        assertEquals(520L, writes.get(0)[1]);
+
+        buffer.flush();
+        assertEquals(DAY2, writes.get(1)[0]);
+        assertEquals(1L, writes.get(1)[1]);
+    }
+
+    @Test
+    public void flush_skipsUnchangedCount() throws Exception {
+        assertFalse(buffer.update(DAY1, 500, 0));
+        buffer.flush();
+        assertTrue(writes.isEmpty());
+        assertEquals(0, buffer.getFlushCount());
+    }
+}
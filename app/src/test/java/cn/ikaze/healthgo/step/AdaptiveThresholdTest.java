@@ -0,0 +1,107 @@
+package cn.ikaze.healthgo.step;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import cn.ikaze.healthgo.Benchmarks;
+
+import static org.junit.Assert.*;
+
+
+public class AdaptiveThresholdTest {
+
+    @Test
+    public void windowed_matchesMeanOfLastAmplitudes() throws Exception {
+        Random random = new Random(5);
+        for (int size : new int[]{1, 4, 7, 64}) {
+            AdaptiveThreshold threshold = AdaptiveThreshold.windowed(size, 1.1f);
+            float[] last = new float[size];
+            java.util.Arrays.fill(last, 1.1f);
+            for (int i = 0; i < 100000; i++) {
+                float amplitude = 1 + random.nextFloat() * 4;
+                threshold.add(amplitude);
+                last[i % size] = amplitude;
+                if (i % 997 == 0)
+                    assertEquals("window " + size, mean(last), threshold.get(), 1e-4);
+            }
+        }
+    }
+
+    @Test
+    public void windowed_startsAndResetsAtInitial() throws Exception {
+        AdaptiveThreshold threshold = AdaptiveThreshold.windowed(4, 1.1f);
+        assertEquals(1.1f, threshold.get(), 0);
+        threshold.add(3.1f);
+        assertEquals(1.6f, threshold.get(), 1e-6);
+        threshold.reset();
+        assertEquals(1.1f, threshold.get(), 0);
+    }
+
+    @Test
+    public void windowed_afterResetMatchesFreshThreshold() throws Exception {
+        Random random = new Random(9);
+        AdaptiveThreshold threshold = AdaptiveThreshold.windowed(7, 1.1f);
+        for (int round = 0; round < 50; round++) {
+            // Reset part way through the ring as well as after wrapping it
+            for (int i = random.nextInt(20); i > 0; i--)
+                threshold.add(1 + random.nextFloat() * 4);
+            threshold.reset();
+            AdaptiveThreshold fresh = AdaptiveThreshold.windowed(7, 1.1f);
+            for (int i = random.nextInt(20); i > 0; i--) {
+                float amplitude = 1 + random.nextFloat() * 4;
+                threshold.add(amplitude);
+                fresh.add(amplitude);
+                assertEquals(fresh.get(), threshold.get(), 1e-5);
+            }
+        }
+    }
+
+    @Test
+    public void exponential_convergesOnSteadyAmplitude() throws Exception {
+        AdaptiveThreshold threshold = AdaptiveThreshold.exponential(0.25f, 1.1f);
+        threshold.add(2.1f);
+        assertEquals(1.35f, threshold.get(), 1e-6);
+        for (int i = 0; i < 100; i++)
+            threshold.add(3f);
+        assertEquals(3f, threshold.get(), 1e-4);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void exponential_rejectsDecayOutsideUnitInterval() throws Exception {
+        AdaptiveThreshold.exponential(1.5f, 1.1f);
+    }
+
+    @Test
+    public void benchmark_costDoesNotGrowWithWindow() throws Exception {
+        Benchmarks.assumeEnabled();
+        int n = 2000000;
+        StringBuilder report = new StringBuilder("threshold add+get:");
+        for (int size : new int[]{4, 64, 1024}) {
+            AdaptiveThreshold threshold = AdaptiveThreshold.windowed(size, 1.1f);
+            float sink = run(threshold, n);
+            long start = System.nanoTime();
+            sink += run(threshold, n);
+            long elapsed = System.nanoTime() - start;
+            report.append(String.format(" window %d %.1f ns/op", size, (double) elapsed / n));
+            assertTrue(sink > 0);
+        }
+        System.out.println(report);
+    }
+
+    private static float run(AdaptiveThreshold threshold, int n) {
+        float sink = 0;
+        for (int i = 0; i < n; i++) {
+            threshold.add(1 + (i & 7) * 0.5f);
+            sink += threshold.get();
+        }
+        return sink;
+    }
+
+    private static float mean(float[] values) {
+        double sum = 0;
+        for (float v : values)
+            sum += v;
+        return (float) (sum / values.length);
+    }
+}
@@ -0,0 +1,108 @@
+package cn.ikaze.healthgo.step;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+
+public class BatchedReplayTest {
+
+    private static final long START_NS = 123456789000L;
+
+    private boolean logEnabled;
+
+    @Before
+    public void setUp() {
+        logEnabled = StepDetector.logEnabled;
+        StepDetector.logEnabled = false;
+    }
+
+    @After
+    public void tearDown() {
+        StepDetector.logEnabled = logEnabled;
+    }
+
+    @Test
+    public void bursts_countSameStepsAsLiveDelivery() throws Exception {
+        SensorTrace trace = SensorTrace.walking(START_NS, 20, 50 * 60 * 10, 1.8, 42);
+
+        long live = countLive(trace);
+        assertTrue(live > 0);
+        assertEquals(live, count(trace, 1));
+        assertEquals(live, count(trace, 50));
+        assertEquals(live, count(trace, 256));
+        assertEquals(live, count(trace, trace.size));
+    }
+
+    @Test
+    public void bursts_countSameStepsAtNormalRate() throws Exception {
+        SensorTrace trace = SensorTrace.walking(START_NS, 200, 5 * 60 * 10, 0.9, 7);
+
+        long live = countLive(trace);
+        assertTrue(live > 0);
+        assertEquals(live, count(trace, 64));
+    }
+
+    /**
+     * The FIFO flushes whenever it fills or another app's wakeup drains it,
+     * so bursts split steps at arbitrary points.
+     */
+    @Test
+    public void bursts_ofRandomSizeCountSameStepsAsLiveDelivery() throws Exception {
+        SensorTrace trace = SensorTrace.walking(START_NS, 20, 50 * 60 * 10, 1.4, 5);
+        Random random = new Random(3);
+
+        final long[] steps = {0};
+        StepDetector detector = new StepDetector(new StepListener() {
+            @Override
+            public void step(long num) {
+                steps[0] += num;
+            }
+        });
+        float[] burstValues = new float[256 * 3];
+        long[] burstTimes = new long[256];
+        for (int start = 0; start < trace.size; ) {
+            int count = Math.min(1 + random.nextInt(256), trace.size - start);
+            System.arraycopy(trace.values, start * 3, burstValues, 0, count * 3);
+            System.arraycopy(trace.timestamps, start, burstTimes, 0, count);
+            detector.updateSteps(burstValues, burstTimes, count);
+            start += count;
+        }
+        assertEquals(countLive(trace), steps[0]);
+    }
+
+    /**
+     * One updateStep per sensor event, as StepThread delivered samples
+     * before batching.
+     */
+    private static long countLive(SensorTrace trace) {
+        final long[] steps = {0};
+        StepDetector detector = new StepDetector(new StepListener() {
+            @Override
+            public void step(long num) {
+                steps[0] += num;
+            }
+        });
+        for (int i = 0; i < trace.size; i++) {
+            detector.updateStep(trace.values[i * 3], trace.values[i * 3 + 1], trace.values[i * 3 + 2],
+                    trace.timestamps[i]);
+        }
+        return steps[0];
+    }
+
+    private static long count(SensorTrace trace, int burstSize) {
+        final long[] steps = {0};
+        StepDetector detector = new StepDetector(new StepListener() {
+            @Override
+            public void step(long num) {
+                steps[0] += num;
+            }
+        });
+        trace.replay(detector, burstSize);
+        return steps[0];
+    }
+}
@@ -0,0 +1,125 @@
+package cn.ikaze.healthgo.step;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import cn.ikaze.healthgo.Allocations;
+
+import static org.junit.Assert.*;
+
+
+public class FilteredStepDetectorTest {
+
+    private static final long START_NS = 1000000000L;
+
+    private long steps;
+    private boolean logEnabled;
+
+    @Before
+    public void setUp() {
+        logEnabled = StepDetector.logEnabled;
+        StepDetector.logEnabled = false;
+    }
+
+    @After
+    public void tearDown() {
+        StepDetector.logEnabled = logEnabled;
+    }
+
+    @Test
+    public void filter_removesGravityAndPassesCadence() throws Exception {
+        StepFilter filter = new StepFilter();
+        float still = 0;
+        float walking = 0;
+        for (int i = 0; i < 3000; i++) {
+            long t = START_NS + i * 20000000L;
+            // Phone tilted, not moving
+            float out = filter.filter(3f, 9.3f, 0.5f, t);
+            if (i > 500)
+                still = Math.max(still, Math.abs(out));
+        }
+        filter.reset();
+        for (int i = 0; i < 3000; i++) {
+            double s = i * 0.02;
+            float swing = (float) (2 * Math.sin(2 * Math.PI * 1.8 * s));
+            float out = filter.filter(0, 9.81f + swing, 0, START_NS + i * 20000000L);
+            if (i > 500)
+                walking = Math.max(walking, Math.abs(out));
+        }
+        assertEquals(50, filter.getSampleRate(), 0.5);
+        assertTrue("still " + still, still < 0.01f);
+        assertTrue("walking " + walking, walking > 1.5f);
+    }
+
+    @Test
+    public void syntheticWalks_countCloseToTruth() throws Exception {
+        for (double hz : new double[]{0.8, 1.2, 1.8, 2.5}) {
+            SensorTrace trace = SensorTrace.walking(START_NS, 20, 30000, hz, 7);
+            long counted = count(trace);
+            assertEquals(hz + "Hz", trace.steps, counted, trace.steps * 0.05);
+        }
+    }
+
+    @Test
+    public void standingStill_countsNothing() throws Exception {
+        SensorTrace trace = SensorTrace.walking(START_NS, 20, 30000, 0, 3);
+        assertEquals(0, count(trace));
+    }
+
+    /**
+     * Two seconds without a step drop back to waiting, so a few steps after
+     * a pause are not counted until the walk is confirmed again.
+     */
+    @Test
+    public void pause_longerThanTwoSecondsWaitsForStepsAgain() throws Exception {
+        FilteredStepDetector detector = new FilteredStepDetector(new StepListener() {
+            @Override
+            public void step(long num) {
+                steps += num;
+            }
+        });
+        steps = 0;
+        long t = START_NS;
+        SensorTrace.walking(t, 20, 1000, 1.8, 1).replay(detector, 64);
+        // Standing still for 3 s, then three steps
+        SensorTrace.walking(t += 1000 * 20000000L, 20, 150, 0, 2).replay(detector, 64);
+        long walked = steps;
+        assertTrue(walked > 0);
+        SensorTrace.walking(t + 150 * 20000000L, 20, 90, 1.8, 3).replay(detector, 64);
+        assertEquals(walked, steps);
+    }
+
+    @Test
+    public void updateSteps_allocatesNothingPerSample() throws Exception {
+        final SensorTrace trace = SensorTrace.walking(START_NS, 20, 100000, 1.6, 9);
+        final FilteredStepDetector detector = new FilteredStepDetector(new StepListener() {
+            @Override
+            public void step(long num) {
+                steps += num;
+            }
+        });
+        final float[] burstValues = new float[256 * 3];
+        final long[] burstTimes = new long[256];
+        trace.replay(detector, burstValues, burstTimes);
+        Allocations.assertNone(trace.size + " samples", new Runnable() {
+            @Override
+            public void run() {
+                trace.replay(detector, burstValues, burstTimes);
+            }
+        });
+        assertTrue(steps > 0);
+    }
+
+    private long count(SensorTrace trace) {
+        steps = 0;
+        FilteredStepDetector detector = new FilteredStepDetector(new StepListener() {
+            @Override
+            public void step(long num) {
+                steps += num;
+            }
+        });
+        trace.replay(detector, 256);
+        return steps;
+    }
+}
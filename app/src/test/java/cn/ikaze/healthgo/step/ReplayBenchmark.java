@@ -0,0 +1,108 @@
+package cn.ikaze.healthgo.step;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+
+
+/**
+ * Replays a {@link SensorTrace} through a fresh {@link StepEngine}, the
+ * default {@link StepDetector} unless another registered engine is named,
+ * and measures accuracy against the trace's ground truth, throughput and
+ * allocations per sample.
+ */
+public class ReplayBenchmark {
+
+    private static final int BURST = 256;
+
+    public static class Result {
+        public final String name;
+        public final long counted;
+        public final long truth;
+        public final double samplesPerSecond;
+        public final double bytesPerSample;
+
+        Result(String name, long counted, long truth, double samplesPerSecond, double bytesPerSample) {
+            this.name = name;
+            this.counted = counted;
+            this.truth = truth;
+            this.samplesPerSecond = samplesPerSecond;
+            this.bytesPerSample = bytesPerSample;
+        }
+
+        /**
+         * Relative error against ground truth, NaN when the trace has none.
+         */
+        public double error() {
+            if (truth <= 0)
+                return Double.NaN;
+            return (double) (counted - truth) / truth;
+        }
+
+        public double nsPerSample() {
+            return 1e9 / samplesPerSecond;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%-24s steps %6d / %6d (%+6.1f%%)  %,12.0f samples/s %7.1f ns/sample  %6.2f B/sample",
+                    name, counted, truth, error() * 100, samplesPerSecond, nsPerSample(), bytesPerSample);
+        }
+    }
+
+    private long steps;
+
+    public Result run(String name, SensorTrace trace, int rounds) {
+        return run(StepEngines.DEFAULT, name, trace, rounds);
+    }
+
+    /**
+     * @param engine name registered with {@link StepEngines}
+     */
+    public Result run(String engine, String name, SensorTrace trace, int rounds) {
+        float[] burstValues = new float[BURST * 3];
+        long[] burstTimes = new long[BURST];
+
+        // Warm up so the timed rounds run compiled code
+        long counted = replay(engine, trace, burstValues, burstTimes);
+
+        long tid = Thread.currentThread().getId();
+        long bytesBefore = allocatedBytes(tid);
+        long start = System.nanoTime();
+        for (int r = 0; r < rounds; r++)
+            replay(engine, trace, burstValues, burstTimes);
+        long elapsed = System.nanoTime() - start;
+        long bytes = allocatedBytes(tid) - bytesBefore;
+
+        long samples = (long) trace.size * rounds;
+        double bytesPerSample = bytesBefore < 0 ? Double.NaN : (double) bytes / samples;
+        return new Result(name, counted, trace.steps, samples * 1e9 / Math.max(1, elapsed), bytesPerSample);
+    }
+
+    private long replay(String engine, SensorTrace trace, float[] burstValues, long[] burstTimes) {
+        steps = 0;
+        StepEngine detector = StepEngines.create(engine, new StepListener() {
+            @Override
+            public void step(long num) {
+                steps += num;
+            }
+        });
+        for (int start = 0; start < trace.size; start += BURST) {
+            int count = Math.min(BURST, trace.size - start);
+            System.arraycopy(trace.values, start * 3, burstValues, 0, count * 3);
+            System.arraycopy(trace.timestamps, start, burstTimes, 0, count);
+            detector.updateSteps(burstValues, burstTimes, count);
+        }
+        return steps;
+    }
+
+    private static long allocatedBytes(long tid) {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean))
+            return -1;
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        if (!threadBean.isThreadAllocatedMemorySupported())
+            return -1;
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+        return threadBean.getThreadAllocatedBytes(tid);
+    }
+}
@@ -0,0 +1,64 @@
+package cn.ikaze.healthgo.step;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+
+public class SampleRingBufferTest {
+
+    @Test
+    public void capacity_roundsUpToPowerOfTwo() throws Exception {
+        assertEquals(1024, new SampleRingBuffer(1000).capacity());
+        assertEquals(1024, new SampleRingBuffer(1024).capacity());
+    }
+
+    @Test
+    public void offer_dropsWhenFull() throws Exception {
+        SampleRingBuffer buffer = new SampleRingBuffer(4);
+        for (int i = 0; i < 4; i++)
+            assertTrue(buffer.offer(i, 0, 0, i));
+        assertFalse(buffer.offer(9, 0, 0, 9));
+        assertEquals(1, buffer.getDropped());
+
+        float[] values = new float[12];
+        long[] times = new long[4];
+        assertEquals(4, buffer.drainTo(values, times, 4));
+        assertEquals(3, times[3]);
+        assertEquals(3f, values[9], 0f);
+        assertEquals(0, buffer.size());
+    }
+
+    @Test
+    public void producerAndConsumerThreads_seeEverySampleInOrder() throws Exception {
+        final SampleRingBuffer buffer = new SampleRingBuffer(64);
+        final int total = 200000;
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 1; i <= total; ) {
+                    if (buffer.offer(i, -i, 0, i))
+                        i++;
+                    else
+                        Thread.yield();
+                }
+            }
+        });
+        producer.start();
+
+        float[] values = new float[32 * 3];
+        long[] times = new long[32];
+        long expected = 1;
+        while (expected <= total) {
+            int count = buffer.drainTo(values, times, 32);
+            if (count == 0)
+                Thread.yield();
+            for (int n = 0; n < count; n++) {
+                assertEquals(expected, times[n]);
+                assertEquals((float) -expected, values[n * 3 + 1], 0f);
+                expected++;
+            }
+        }
+        producer.join();
+    }
+}
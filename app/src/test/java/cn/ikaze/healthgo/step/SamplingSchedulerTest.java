@@ -0,0 +1,61 @@
+package cn.ikaze.healthgo.step;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+
+public class SamplingSchedulerTest {
+
+    private static final long MINUTE = 60000;
+
+    @Test
+    public void idle_dropsToLowRateThenTrigger() throws Exception {
+        SamplingScheduler scheduler = new SamplingScheduler(10 * MINUTE, 30 * MINUTE, true, 0);
+        assertFalse(scheduler.update(10 * MINUTE - 1));
+
+        assertTrue(scheduler.update(10 * MINUTE));
+        assertEquals(SamplingScheduler.LOW, scheduler.getState());
+        assertFalse(scheduler.update(30 * MINUTE - 1));
+
+        assertTrue(scheduler.update(30 * MINUTE));
+        assertEquals(SamplingScheduler.TRIGGER, scheduler.getState());
+        assertFalse(scheduler.update(600 * MINUTE));
+    }
+
+    @Test
+    public void firstMotion_returnsToFullRate() throws Exception {
+        SamplingScheduler scheduler = new SamplingScheduler(10 * MINUTE, 30 * MINUTE, true, 0);
+        scheduler.update(40 * MINUTE);
+        assertTrue(scheduler.onActivity(41 * MINUTE));
+        assertEquals(SamplingScheduler.FULL, scheduler.getState());
+        assertFalse(scheduler.onActivity(42 * MINUTE));
+        // Idle time counts from the last activity
+        assertFalse(scheduler.update(52 * MINUTE - 1));
+        assertTrue(scheduler.update(52 * MINUTE));
+    }
+
+    @Test
+    public void withoutTriggerSensor_staysAtLowRate() throws Exception {
+        SamplingScheduler scheduler = new SamplingScheduler(10 * MINUTE, 30 * MINUTE, false, 0);
+        assertTrue(scheduler.update(15 * MINUTE));
+        assertFalse(scheduler.update(8 * 60 * MINUTE));
+        assertEquals(SamplingScheduler.LOW, scheduler.getState());
+    }
+
+    @Test
+    public void night_isAccountedPerState() throws Exception {
+        SamplingScheduler scheduler = new SamplingScheduler(10 * MINUTE, 30 * MINUTE, true, 0);
+        // Last step at 23:00, asleep until a walk at 07:00
+        scheduler.update(10 * MINUTE);
+        scheduler.update(30 * MINUTE);
+        scheduler.onActivity(8 * 60 * MINUTE);
+        long now = 8 * 60 * MINUTE + 5 * MINUTE;
+
+        assertEquals(15 * MINUTE, scheduler.getTimeIn(SamplingScheduler.FULL, now));
+        assertEquals(20 * MINUTE, scheduler.getTimeIn(SamplingScheduler.LOW, now));
+        assertEquals(450 * MINUTE, scheduler.getTimeIn(SamplingScheduler.TRIGGER, now));
+        assertEquals(2, scheduler.getEntries(SamplingScheduler.FULL));
+        assertEquals("sampling full 15 min (2x) low 20 min (1x) trigger 450 min (1x)", scheduler.report(now));
+    }
+}
@@ -0,0 +1,159 @@
+package cn.ikaze.healthgo.step;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Random;
+
+
+/**
+ * An accelerometer trace held as packed x, y, z values with event timestamps
+ * in nanoseconds, replayable into a {@link StepDetector}.
+ * <p>
+ * Traces are stored either as CSV, one {@code timestamp,x,y,z} row per sample
+ * with an optional {@code # steps=N} ground truth line, or in a compact binary
+ * form of 20 bytes per sample.
+ */
+public class SensorTrace {
+
+    private static final int MAGIC = 0x48475452; // "HGTR"
+    private static final int VERSION = 1;
+
+    public final float[] values;
+    public final long[] timestamps;
+    public final int size;
+    // Steps actually taken, or -1 when the recording has no ground truth
+    public final long steps;
+
+    public SensorTrace(float[] values, long[] timestamps, int size, long steps) {
+        this.values = values;
+        this.timestamps = timestamps;
+        this.size = size;
+        this.steps = steps;
+    }
+
+    /**
+     * Synthetic walk: gravity plus one swing per step at the given cadence with
+     * a little noise, sampled every periodMs starting at startNs.
+     */
+    public static SensorTrace walking(long startNs, int periodMs, int count, double hz, long seed) {
+        Random random = new Random(seed);
+        float[] values = new float[count * 3];
+        long[] timestamps = new long[count];
+        for (int i = 0; i < count; i++) {
+            double t = i * periodMs / 1000.0;
+            double swing = 2.5 * Math.sin(2 * Math.PI * hz * t);
+            values[i * 3] = (float) (0.4 + random.nextGaussian() * 0.05);
+            values[i * 3 + 1] = (float) (9.81 + swing + random.nextGaussian() * 0.05);
+            values[i * 3 + 2] = (float) (0.3 + random.nextGaussian() * 0.05);
+            // Sensor delivery jitters by a couple of milliseconds
+            timestamps[i] = startNs + i * periodMs * 1000000L + random.nextInt(2000000);
+        }
+        long steps = (long) (hz * count * periodMs / 1000.0);
+        return new SensorTrace(values, timestamps, count, steps);
+    }
+
+    /**
+     * Replays the trace in bursts of burstSize samples, as batched delivery does.
+     */
+    public void replay(StepDetector detector, int burstSize) {
+        replay(detector, new float[burstSize * 3], new long[burstSize]);
+    }
+
+    /**
+     * Replays in bursts the size of the given buffers, without allocating.
+     */
+    public void replay(StepDetector detector, float[] burstValues, long[] burstTimes) {
+        int burstSize = burstTimes.length;
+        for (int start = 0; start < size; start += burstSize) {
+            int count = Math.min(burstSize, size - start);
+            System.arraycopy(values, start * 3, burstValues, 0, count * 3);
+            System.arraycopy(timestamps, start, burstTimes, 0, count);
+            detector.updateSteps(burstValues, burstTimes, count);
+        }
+    }
+
+    public void writeCsv(Writer writer) throws IOException {
+        if (steps >= 0)
+            writer.write("# steps=" + steps + "\n");
+        for (int i = 0; i < size; i++) {
+            writer.write(timestamps[i] + "," + values[i * 3] + "," + values[i * 3 + 1] + ","
+                    + values[i * 3 + 2] + "\n");
+        }
+        writer.flush();
+    }
+
+    public static SensorTrace readCsv(Reader reader) throws IOException {
+        BufferedReader in = new BufferedReader(reader);
+        float[] values = new float[3 * 1024];
+        long[] timestamps = new long[1024];
+        int size = 0;
+        long steps = -1;
+        String line;
+        while ((line = in.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty())
+                continue;
+            if (line.startsWith("#")) {
+                int eq = line.indexOf("steps=");
+                if (eq >= 0)
+                    steps = Long.parseLong(line.substring(eq + 6).trim());
+                continue;
+            }
+            String[] cols = line.split(",");
+            if (cols.length < 4 || !Character.isDigit(cols[0].charAt(0)))
+                continue; // column header
+            if (size == timestamps.length) {
+                timestamps = Arrays.copyOf(timestamps, size * 2);
+                values = Arrays.copyOf(values, size * 6);
+            }
+            timestamps[size] = Long.parseLong(cols[0].trim());
+            values[size * 3] = Float.parseFloat(cols[1].trim());
+            values[size * 3 + 1] = Float.parseFloat(cols[2].trim());
+            values[size * 3 + 2] = Float.parseFloat(cols[3].trim());
+            size++;
+        }
+        return new SensorTrace(values, timestamps, size, steps);
+    }
+
+    public void writeBinary(OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(steps);
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            out.writeLong(timestamps[i]);
+            out.writeFloat(values[i * 3]);
+            out.writeFloat(values[i * 3 + 1]);
+            out.writeFloat(values[i * 3 + 2]);
+        }
+        out.flush();
+    }
+
+    public static SensorTrace readBinary(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        if (in.readInt() != MAGIC)
+            throw new IOException("not a sensor trace");
+        int version = in.readInt();
+        if (version != VERSION)
+            throw new IOException("unsupported trace version " + version);
+        long steps = in.readLong();
+        int size = in.readInt();
+        float[] values = new float[size * 3];
+        long[] timestamps = new long[size];
+        for (int i = 0; i < size; i++) {
+            timestamps[i] = in.readLong();
+            values[i * 3] = in.readFloat();
+            values[i * 3 + 1] = in.readFloat();
+            values[i * 3 + 2] = in.readFloat();
+        }
+        return new SensorTrace(values, timestamps, size, steps);
+    }
+}
@@ -0,0 +1,123 @@
+package cn.ikaze.healthgo.step;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+import cn.ikaze.healthgo.Allocations;
+
+import static org.junit.Assert.*;
+
+
+public class StepChannelTest {
+
+    /**
+     * Stands in for the main looper: runs nothing until asked.
+     */
+    private final Queue<Runnable> looper = new ArrayDeque<>();
+    private final Executor main = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            looper.add(command);
+        }
+    };
+    private final List<Long> received = new ArrayList<>();
+    private final StepChannel.Listener listener = new StepChannel.Listener() {
+        @Override
+        public void onSteps(long steps) {
+            received.add(steps);
+        }
+    };
+    private StepChannel channel;
+
+    @Before
+    public void setUp() {
+        channel = new StepChannel();
+    }
+
+    private void runLooper() {
+        Runnable r;
+        while ((r = looper.poll()) != null)
+            r.run();
+    }
+
+    @Test
+    public void busyUi_getsOnlyTheLatestCount() throws Exception {
+        channel.subscribe(listener, main);
+        for (long i = 1; i <= 1000; i++)
+            channel.publish(i);
+        assertEquals(1, looper.size());
+        runLooper();
+        assertEquals("[1000]", received.toString());
+
+        channel.publish(1001);
+        runLooper();
+        assertEquals("[1000, 1001]", received.toString());
+    }
+
+    @Test
+    public void subscribe_deliversOnlyLaterCounts() throws Exception {
+        channel.publish(41);
+        channel.subscribe(listener, main);
+        assertTrue(looper.isEmpty());
+        channel.publish(42);
+        runLooper();
+        assertEquals("[42]", received.toString());
+        // The same count again is not redelivered
+        channel.publish(42);
+        runLooper();
+        assertEquals("[42]", received.toString());
+    }
+
+    @Test
+    public void cancel_dropsQueuedDelivery() throws Exception {
+        StepChannel.Subscription subscription = channel.subscribe(listener, main);
+        channel.publish(7);
+        subscription.cancel();
+        runLooper();
+        channel.publish(8);
+        assertTrue(looper.isEmpty());
+        assertTrue(received.isEmpty());
+    }
+
+    @Test
+    public void visibility_reachesOnlyTheCurrentListener() throws Exception {
+        final List<Boolean> seen = new ArrayList<>();
+        StepChannel.VisibilityListener old = new StepChannel.VisibilityListener() {
+            @Override
+            public void onVisibilityChanged(boolean visible) {
+                fail("replaced listener called");
+            }
+        };
+        StepChannel.VisibilityListener current = new StepChannel.VisibilityListener() {
+            @Override
+            public void onVisibilityChanged(boolean visible) {
+                seen.add(visible);
+            }
+        };
+        channel.setVisibilityListener(old);
+        channel.setVisibilityListener(current);
+        channel.removeVisibilityListener(old);
+        channel.setVisible(true);
+        channel.setVisible(false);
+        assertEquals("[true, false]", seen.toString());
+    }
+
+    @Test
+    public void publish_doesNotAllocate() throws Exception {
+        channel.subscribe(listener, main);
+        channel.publish(0);
+        Allocations.assertNone("100000 publishes", new Runnable() {
+            @Override
+            public void run() {
+                for (long i = 1; i <= 100000; i++)
+                    channel.publish(i);
+            }
+        });
+    }
+}
@@ -0,0 +1,151 @@
+package cn.ikaze.healthgo.step;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * Runs the reconciler against a fake hardware counter through service
+ * restarts, process kills and reboots, checking that no step is lost or
+ * counted twice.
+ */
+public class StepCounterReconcilerTest {
+
+    private static final long BOOT = 1760000000000L;
+    private static final long HOUR = 3600000L;
+
+    /**
+     * Hardware counter that keeps counting while the service is down.
+     */
+    private static class FakeCounter {
+        long bootTime = BOOT;
+        long value;
+
+        void walk(int steps) {
+            value += steps;
+        }
+
+        void reboot(long at) {
+            bootTime = at;
+            value = 0;
+        }
+    }
+
+    /**
+     * The service: persisted count, saved anchor, and a journal that holds
+     * counts beyond the last save.
+     */
+    private FakeCounter sensor;
+    private long saved;
+    private long journaled;
+    private long anchorBoot = -1;
+    private long anchorCounter;
+    private long anchorTotal;
+    private StepCounterReconciler reconciler;
+    private long count;
+
+    @Before
+    public void setUp() {
+        sensor = new FakeCounter();
+        sensor.walk(1200);
+    }
+
+    @Test
+    public void firstRun_ignoresStepsBeforeInstall() throws Exception {
+        start();
+        deliver();
+        assertEquals(0, count);
+        sensor.walk(30);
+        deliver();
+        assertEquals(30, count);
+    }
+
+    @Test
+    public void restart_countsStepsTakenWhileStopped() throws Exception {
+        start();
+        deliver();
+        sensor.walk(100);
+        deliver();
+        save();
+        stop();
+
+        sensor.walk(250);
+        start();
+        deliver();
+        assertEquals(350, count);
+    }
+
+    @Test
+    public void kill_doesNotCountJournaledStepsTwice() throws Exception {
+        start();
+        deliver();
+        sensor.walk(100);
+        deliver();
+        save();
+        // Counted and journaled but not saved, then the process dies
+        sensor.walk(40);
+        deliver();
+        kill();
+
+        sensor.walk(10);
+        start();
+        deliver();
+        assertEquals(150, count);
+    }
+
+    @Test
+    public void reboot_countsEverythingSinceBoot() throws Exception {
+        start();
+        deliver();
+        sensor.walk(100);
+        deliver();
+        save();
+        stop();
+
+        sensor.reboot(BOOT + 30 * HOUR);
+        sensor.walk(70);
+        start();
+        deliver();
+        assertEquals(170, count);
+    }
+
+    @Test
+    public void counterReset_whileRunningIsNotNegative() throws Exception {
+        start();
+        deliver();
+        sensor.walk(20);
+        deliver();
+        sensor.value = 5;
+        deliver();
+        assertEquals(25, count);
+    }
+
+    private void start() {
+        count = Math.max(saved, journaled);
+        reconciler = new StepCounterReconciler(sensor.bootTime);
+        if (anchorBoot >= 0)
+            reconciler.restore(anchorBoot, anchorCounter, count - anchorTotal);
+    }
+
+    private void deliver() {
+        count += reconciler.update(sensor.value);
+        journaled = count;
+    }
+
+    private void save() {
+        saved = count;
+        anchorBoot = reconciler.getBootTime();
+        anchorCounter = reconciler.getLastCounter();
+        anchorTotal = count;
+    }
+
+    private void stop() {
+        save();
+    }
+
+    private void kill() {
+        // Nothing is saved; only the journal keeps what was counted
+    }
+}
@@ -0,0 +1,139 @@
+package cn.ikaze.healthgo.step;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import cn.ikaze.healthgo.Benchmarks;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+
+/**
+ * Accuracy and throughput of {@link StepDetector} over synthetic walks and,
+ * when {@code -PtraceDir=...} points at a folder of recorded .csv or .trace
+ * files, over real recordings. The timed runs need {@code -Pbenchmarks}.
+ */
+public class StepDetectorBenchmark {
+
+    private static final long START_NS = 1000000000L;
+
+    private boolean logEnabled;
+
+    @Before
+    public void setUp() {
+        logEnabled = StepDetector.logEnabled;
+        StepDetector.logEnabled = false;
+    }
+
+    @After
+    public void tearDown() {
+        StepDetector.logEnabled = logEnabled;
+    }
+
+    @Test
+    public void traces_surviveCsvAndBinaryRoundTrip() throws Exception {
+        SensorTrace trace = SensorTrace.walking(START_NS, 20, 3000, 1.6, 11);
+
+        StringWriter csv = new StringWriter();
+        trace.writeCsv(csv);
+        SensorTrace fromCsv = SensorTrace.readCsv(new StringReader(csv.toString()));
+
+        ByteArrayOutputStream bin = new ByteArrayOutputStream();
+        trace.writeBinary(bin);
+        SensorTrace fromBinary = SensorTrace.readBinary(new ByteArrayInputStream(bin.toByteArray()));
+
+        assertEquals(trace.size * 20 + 20, bin.size());
+        for (SensorTrace copy : new SensorTrace[]{fromCsv, fromBinary}) {
+            assertEquals(trace.size, copy.size);
+            assertEquals(trace.steps, copy.steps);
+            for (int i = 0; i < trace.size; i++) {
+                assertEquals(trace.timestamps[i], copy.timestamps[i]);
+                assertEquals(trace.values[i * 3 + 1], copy.values[i * 3 + 1], 0f);
+            }
+        }
+
+        ReplayBenchmark benchmark = new ReplayBenchmark();
+        long counted = benchmark.run("original", trace, 1).counted;
+        assertEquals(counted, benchmark.run("csv", fromCsv, 1).counted);
+        assertEquals(counted, benchmark.run("binary", fromBinary, 1).counted);
+    }
+
+    @Test
+    public void walk_countsCloseToTruth() throws Exception {
+        // An ordinary walk at full rate
+        SensorTrace walk = SensorTrace.walking(START_NS, 20, 30000, 1.2, 5);
+        ReplayBenchmark.Result result = new ReplayBenchmark().run("walk", walk, 1);
+        assertEquals(0, result.error(), 0.15);
+    }
+
+    @Test
+    public void syntheticWalks() throws Exception {
+        Benchmarks.assumeEnabled();
+        ReplayBenchmark benchmark = new ReplayBenchmark();
+        // Ten minutes each at 50 Hz (SENSOR_DELAY_GAME) and 5 Hz (SENSOR_DELAY_NORMAL)
+        int[] periods = {20, 200};
+        double[] cadences = {0.8, 1.2, 1.8, 2.5};
+        for (int period : periods) {
+            for (double hz : cadences) {
+                SensorTrace trace = SensorTrace.walking(START_NS, period, 600000 / period, hz, 1);
+                ReplayBenchmark.Result result = benchmark.run(period + "ms " + hz + "Hz", trace, 20);
+                System.out.println(result);
+
+                assertFalse(result.bytesPerSample >= 1);
+            }
+        }
+    }
+
+    @Test
+    public void recordedTraces() throws Exception {
+        String dir = System.getProperty("trace.dir");
+        assumeTrue("recordings come from -PtraceDir", dir != null);
+        ReplayBenchmark benchmark = new ReplayBenchmark();
+        for (File file : listTraces(new File(dir))) {
+            System.out.println(benchmark.run(file.getName(), load(file), 5));
+        }
+    }
+
+    static List<File> listTraces(File dir) {
+        List<File> traces = new ArrayList<>();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (f.getName().endsWith(".csv") || f.getName().endsWith(".trace"))
+                    traces.add(f);
+            }
+        }
+        return traces;
+    }
+
+    static SensorTrace load(File file) throws IOException {
+        if (file.getName().endsWith(".csv")) {
+            FileReader reader = new FileReader(file);
+            try {
+                return SensorTrace.readCsv(reader);
+            } finally {
+                reader.close();
+            }
+        }
+        InputStream in = new FileInputStream(file);
+        try {
+            return SensorTrace.readBinary(new java.io.BufferedInputStream(in));
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package cn.ikaze.healthgo.step;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import cn.ikaze.healthgo.Allocations;
+
+import static org.junit.Assert.*;
+
+
+public class StepDetectorTest {
+
+    private static final int SAMPLES = 1000000;
+
+    private long steps;
+    private boolean logEnabled;
+
+    @Before
+    public void setUp() {
+        logEnabled = StepDetector.logEnabled;
+        StepDetector.logEnabled = false;
+    }
+
+    @After
+    public void tearDown() {
+        StepDetector.logEnabled = logEnabled;
+    }
+
+    @Test
+    public void process_allocatesNothingPerSample() throws Exception {
+        final StepDetector detector = new StepDetector(new StepListener() {
+            @Override
+            public void step(long num) {
+                steps += num;
+            }
+        });
+
+        // Warm up so the measured loop runs compiled code
+        feed(detector, SAMPLES);
+
+        Allocations.assertNone(SAMPLES + " samples", new Runnable() {
+            @Override
+            public void run() {
+                feed(detector, SAMPLES);
+            }
+        });
+        assertTrue(steps > 0);
+    }
+
+    @Test
+    public void updateStep_followsSensorTimeNotWallClock() throws Exception {
+        SensorTrace trace = SensorTrace.walking(5000000000L, 20, 50 * 60 * 5, 1.8, 3);
+        SensorTrace shifted = SensorTrace.walking(987654321000000L, 20, 50 * 60 * 5, 1.8, 3);
+
+        // Minutes of data replayed in a tight loop still count walking steps
+        long counted = countOneByOne(trace);
+        assertTrue(counted > 0);
+        assertEquals(counted, countOneByOne(shifted));
+    }
+
+    @Test
+    public void updateStep_gapLongerThanStepWindowStartsNewWave() throws Exception {
+        final long[] counted = {0};
+        StepDetector detector = new StepDetector(new StepListener() {
+            @Override
+            public void step(long num) {
+                counted[0] += num;
+            }
+        });
+        detector.setModel(1);
+
+        long t = 1000000000L;
+        detector.updateStep(0, 8f, 0, t);
+        detector.updateStep(0, 8f, 0, t += 100000000L);
+        detector.updateStep(0, 11f, 0, t += 100000000L);
+        // The way down arrives a second later and must not complete the step
+        detector.updateStep(0, 8f, 0, t += 1000000000L);
+        assertEquals(0, counted[0]);
+    }
+
+    private long countOneByOne(SensorTrace trace) {
+        steps = 0;
+        StepDetector detector = new StepDetector(new StepListener() {
+            @Override
+            public void step(long num) {
+                steps += num;
+            }
+        });
+        for (int i = 0; i < trace.size; i++) {
+            detector.updateStep(trace.values[i * 3], trace.values[i * 3 + 1], trace.values[i * 3 + 2],
+                    trace.timestamps[i]);
+        }
+        return steps;
+    }
+
+    /**
+     * Walking-like magnitude: gravity plus a 2 Hz swing, sampled every 100 ms.
+     */
+    private static void feed(StepDetector detector, int count) {
+        for (int i = 0; i < count; i++) {
+            float swing = (float) (2.5 * Math.sin(2 * Math.PI * 2 * i * 0.1 + 0.3));
+            detector.process(0.4f, 9.81f + swing, 0.3f);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package cn.ikaze.healthgo.step;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import cn.ikaze.healthgo.Benchmarks;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * Runs every engine registered with {@link StepEngines} over the same traces,
+ * synthetic ones and, with {@code -PtraceDir=...}, recorded ones, so
+ * detectors can be compared on accuracy, ns/sample and bytes/sample. Only
+ * with {@code -Pbenchmarks}.
+ */
+public class StepEnginesBenchmark {
+
+    private static final long START_NS = 1000000000L;
+
+    private boolean logEnabled;
+
+    @Before
+    public void setUp() {
+        logEnabled = StepDetector.logEnabled;
+        StepDetector.logEnabled = false;
+    }
+
+    @After
+    public void tearDown() {
+        StepDetector.logEnabled = logEnabled;
+    }
+
+    @Test
+    public void create_fallsBackToDefaultEngine() throws Exception {
+        StepListener listener = new StepListener() {
+            @Override
+            public void step(long num) {
+            }
+        };
+        assertTrue(StepEngines.names().contains(StepEngines.DEFAULT));
+        assertTrue(StepEngines.create(StepEngines.DEFAULT, listener) instanceof StepDetector);
+        assertTrue(StepEngines.create("no such engine", listener) instanceof StepDetector);
+        assertTrue(StepEngines.create(null, listener) instanceof StepDetector);
+    }
+
+    @Test
+    public void allEngines() throws Exception {
+        Benchmarks.assumeEnabled();
+        List<String> names = new ArrayList<>();
+        List<SensorTrace> traces = new ArrayList<>();
+        // Full rate, and the SENSOR_DELAY_NORMAL rate StepThread registers at
+        for (int periodMs : new int[]{20, 200}) {
+            for (double hz : new double[]{0.8, 1.2, 1.8, 2.5}) {
+                names.add(periodMs + "ms " + hz + "Hz");
+                traces.add(SensorTrace.walking(START_NS, periodMs, 30000, hz, 1));
+            }
+        }
+        String dir = System.getProperty("trace.dir");
+        if (dir != null) {
+            for (File file : StepDetectorBenchmark.listTraces(new File(dir))) {
+                names.add(file.getName());
+                traces.add(StepDetectorBenchmark.load(file));
+            }
+        }
+
+        ReplayBenchmark benchmark = new ReplayBenchmark();
+        for (String engine : StepEngines.names()) {
+            System.out.println("engine " + engine);
+            for (int i = 0; i < traces.size(); i++) {
+                ReplayBenchmark.Result result = benchmark.run(engine, names.get(i), traces.get(i), 5);
+                System.out.println(result);
+                assertFalse(engine + " allocates per sample", result.bytesPerSample >= 1);
+            }
+        }
+    }
+}
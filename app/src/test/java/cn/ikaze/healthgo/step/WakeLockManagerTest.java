@@ -0,0 +1,69 @@
+package cn.ikaze.healthgo.step;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+
+public class WakeLockManagerTest {
+
+    private final List<String> calls = new ArrayList<>();
+    private WakeLockManager manager;
+
+    @Before
+    public void setUp() {
+        manager = new WakeLockManager(new WakeLockManager.Lock() {
+            @Override
+            public void acquire(long timeoutMs) {
+                calls.add("acquire " + timeoutMs);
+            }
+
+            @Override
+            public void release() {
+                calls.add("release");
+            }
+        });
+    }
+
+    @Test
+    public void burst_isHeldOnlyWhileProcessed() throws Exception {
+        // A batched burst every ten seconds, processed in 40 ms
+        for (long t = 0; t < 60000; t += 10000) {
+            manager.hold(2000, t);
+            manager.release(t + 40);
+        }
+        assertEquals(6 * 40, manager.getHeldMs(60000));
+        assertEquals(6, manager.getAcquireCount());
+        assertEquals(40, manager.getMaxHoldMs());
+        assertFalse(manager.isHeld(60000));
+    }
+
+    @Test
+    public void hold_extendsWithoutShortening() throws Exception {
+        manager.hold(5000, 0);
+        manager.hold(1000, 100);
+        manager.hold(5000, 1000);
+        assertEquals(1, manager.getAcquireCount());
+        assertEquals("[acquire 5000, acquire 5000]", calls.toString());
+        assertTrue(manager.isHeld(5999));
+        assertFalse(manager.isHeld(6000));
+    }
+
+    @Test
+    public void timeout_endsTheHoldWithoutRelease() throws Exception {
+        manager.hold(3000, 1000);
+        assertEquals(1500, manager.getHeldMs(2500));
+        // Nobody released: only the timeout counts
+        assertEquals(3000, manager.getHeldMs(100000));
+        manager.release(100000);
+        assertEquals(3000, manager.getHeldMs(100000));
+        assertEquals("[acquire 3000]", calls.toString());
+
+        manager.hold(1000, 200000);
+        assertEquals(2, manager.getAcquireCount());
+    }
+}
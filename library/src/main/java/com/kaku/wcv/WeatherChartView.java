@@ -8,12 +8,14 @@ import android.graphics.DashPathEffect;
 import android.graphics.Paint;
 import android.graphics.Path;
 import android.util.AttributeSet;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
 import android.view.View;
-
-import com.kaku.library.R;
+import android.widget.OverScroller;
 
 import java.util.Calendar;
-import java.util.Date;
+
+import com.kaku.library.R;
 
 // The plan
 //*-----------------------------------------*
@@ -47,34 +49,75 @@ import java.util.Date;
 public class WeatherChartView extends View {
 
     /**
-     * x-axis collection
+     * Points that fit across the control; the rest are reached by scrolling
      */
-    private float mXAxis[] = new float[6];
+    private static final int DEFAULT_VISIBLE_POINTS = 6;
+
+    private static final int[] EMPTY = new int[0];
 
     /**
      * Daytime y-axis collection
      */
-    private float mYAxisDay[] = new float[6];
+    private float mYAxisDay[] = new float[0];
 
     /**
      * Night y-axis collection
      */
-    private float mYAxisNight[] = new float[6];
+    private float mYAxisNight[] = new float[0];
 
     /**
-     * x,y axis set number
+     * Daytime temperature collection
      */
-    private static final int LENGTH = 6;
+    private int mTempDay[] = EMPTY;
 
     /**
-     * Daytime temperature collection
+     * Night temperature collection
      */
-    private int mTempDay[] = new int[6];
+    private int mTempNight[] = EMPTY;
 
     /**
-     * Night temperature collection
+     * Daytime temperatures as text
+     */
+    private String mTempDayText[] = new String[0];
+
+    /**
+     * Label under each point of the night line, null for the default dates
+     */
+    private String mLabels[];
+
+    /**
+     * Default labels, filled as points come into view
+     */
+    private String mDefaultLabels[] = new String[0];
+
+    /**
+     * Number of points, the shorter of the two temperature sets
+     */
+    private int mLength;
+
+    /**
+     * Point drawn with the larger radius
+     */
+    private int mTodayIndex = 1;
+
+    private int mVisiblePoints = DEFAULT_VISIBLE_POINTS;
+
+    /**
+     * Distance between two points on the x-axis
      */
-    private int mTempNight[] = new int[6];
+    private float mPointSpace;
+
+    /**
+     * First and last point laid out for the current scroll position
+     */
+    private int mFirstVisible;
+    private int mLastVisible = -1;
+
+    /**
+     * Set when the temperatures or the size changed, so the y-axis
+     * collections and texts have to be computed again
+     */
+    private boolean mDirty = true;
 
     /**
      * Control height
@@ -136,6 +179,15 @@ public class WeatherChartView extends View {
      */
     private Paint mTextPaint;
 
+    /**
+     * Dotted line path and effect, reused by every frame
+     */
+    private final Path mPath = new Path();
+    private DashPathEffect mDashEffect;
+
+    private GestureDetector mGestureDetector;
+    private OverScroller mScroller;
+
     public WeatherChartView(Context context, AttributeSet attrs) {
         super(context, attrs);
         init(context, attrs);
@@ -175,21 +227,65 @@ public class WeatherChartView extends View {
         mTextPaint.setColor(textColor);
         mTextPaint.setTextSize(mTextSize);
         mTextPaint.setTextAlign(Paint.Align.CENTER);
+
+        mDashEffect = new DashPathEffect(new float[]{2 * mDensity, 2 * mDensity}, 0);
+
+        mScroller = new OverScroller(context);
+        mGestureDetector = new GestureDetector(context, new GestureDetector.SimpleOnGestureListener() {
+            @Override
+            public boolean onDown(MotionEvent e) {
+                mScroller.forceFinished(true);
+                // Nothing to scroll: leave the gesture to clicks and the parent
+                return getMaxScroll() > 0;
+            }
+
+            @Override
+            public boolean onSingleTapUp(MotionEvent e) {
+                // Otherwise View.onTouchEvent has the gesture and clicks itself
+                return getMaxScroll() > 0 && performClick();
+            }
+
+            @Override
+            public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
+                scrollTo(clampScroll(getScrollX() + (int) distanceX), 0);
+                return true;
+            }
+
+            @Override
+            public boolean onFling(MotionEvent e1, MotionEvent e2, float velocityX, float velocityY) {
+                mScroller.fling(getScrollX(), 0, (int) -velocityX, 0, 0, getMaxScroll(), 0, 0);
+                postInvalidateOnAnimation();
+                return true;
+            }
+        });
     }
 
     public WeatherChartView(Context context) {
         super(context);
+        init(context, null);
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        // Set control height, x-axis collection
+        setHeightAndXAxis();
     }
 
     @Override
     protected void onDraw(Canvas canvas) {
         super.onDraw(canvas);
-        if (mHeight == 0) {
-            // Set control height, x-axis collection
-            setHeightAndXAxis();
+        if (mLength == 0 || mPointSpace == 0) {
+            return;
         }
-        // Calculate the y-axis aggregate value
-        computeYAxisValues();
+        if (mDirty) {
+            // Calculate the y-axis aggregate value
+            computeYAxisValues();
+            mDirty = false;
+        }
+        // Only the points in view, plus one on each side for the lines leaving it
+        mFirstVisible = Math.max(0, (int) (getScrollX() / mPointSpace) - 1);
+        mLastVisible = Math.min(mLength - 1, (int) ((getScrollX() + getWidth()) / mPointSpace) + 1);
         // Draw a line chart during the day
         drawChart(canvas, mColorDay, mTempDay, mYAxisDay, 0);
         // Draw a line chart at night
@@ -197,14 +293,16 @@ public class WeatherChartView extends View {
     }
 
     /**
-     * Calculate the y-axis aggregate value
+     * Calculate the y-axis aggregate value and the temperature texts, once
+     * per change of data or size
      */
     private void computeYAxisValues() {
         // Minimum temperature during the day
         int minTempDay = mTempDay[0];
         // Maximum temperature during the day
         int maxTempDay = mTempDay[0];
-        for (int item : mTempDay) {
+        for (int i = 0; i < mLength; i++) {
+            int item = mTempDay[i];
             if (item < minTempDay) {
                 minTempDay = item;
             }
@@ -217,7 +315,8 @@ public class WeatherChartView extends View {
         int minTempNight = mTempNight[0];
         // Store the highest temperature at night
         int maxTempNight = mTempNight[0];
-        for (int item : mTempNight) {
+        for (int i = 0; i < mLength; i++) {
+            int item = mTempNight[i];
             if (item < minTempNight) {
                 minTempNight = item;
             }
@@ -240,17 +339,23 @@ public class WeatherChartView extends View {
 
         // When the temperature is the same (the dividend cannot be 0)
         if (parts == 0) {
-            for (int i = 0; i < LENGTH; i++) {
+            for (int i = 0; i < mLength; i++) {
                 mYAxisDay[i] = yAxisHeight / 2 + length;
                 mYAxisNight[i] = yAxisHeight / 2 + length;
             }
         } else {
             float partValue = yAxisHeight / parts;
-            for (int i = 0; i < LENGTH; i++) {
+            for (int i = 0; i < mLength; i++) {
                 mYAxisDay[i] = mHeight - partValue * (mTempDay[i] - minTemp) - length;
                 mYAxisNight[i] = mHeight - partValue * (mTempNight[i] - minTemp) - length;
             }
         }
+
+        for (int i = 0; i < mLength; i++) {
+            if (mTempDayText[i] == null) {
+                mTempDayText[i] = String.valueOf(mTempDay[i]);
+            }
+        }
     }
 
     /**
@@ -268,42 +373,43 @@ public class WeatherChartView extends View {
 
         int alpha1 = 102;
         int alpha2 = 255;
-        for (int i = 0; i < LENGTH; i++) {
+        for (int i = mFirstVisible; i <= mLastVisible; i++) {
+            float x = getXAxis(i);
             // Draw a line
-            if (i < LENGTH - 1) {
+            if (i < mLastVisible) {
                 // yesterday
                 if (false &&i == 0) {
                     mLinePaint.setAlpha(alpha1);
                     // Set dotted line effect
-                    mLinePaint.setPathEffect(new DashPathEffect(new float[]{2 * mDensity, 2 * mDensity}, 0));
+                    mLinePaint.setPathEffect(mDashEffect);
                     // path
-                    Path path = new Path();
+                    mPath.reset();
                     // Path starting point
-                    path.moveTo(mXAxis[i], yAxis[i]);
+                    mPath.moveTo(x, yAxis[i]);
                     // Path connected to
-                    path.lineTo(mXAxis[i + 1], yAxis[i + 1]);
-                    canvas.drawPath(path, mLinePaint);
+                    mPath.lineTo(getXAxis(i + 1), yAxis[i + 1]);
+                    canvas.drawPath(mPath, mLinePaint);
                 } else {
                     mLinePaint.setAlpha(alpha2);
                     mLinePaint.setPathEffect(null);
-                    canvas.drawLine(mXAxis[i], yAxis[i], mXAxis[i + 1], yAxis[i + 1], mLinePaint);
+                    canvas.drawLine(x, yAxis[i], getXAxis(i + 1), yAxis[i + 1], mLinePaint);
                 }
             }
 
             // Draw a point
-            if (i != 1 &&type!=1) {
+            if (i != mTodayIndex &&type!=1) {
                 // yesterday
                 if (false && i == 0) {
                     mPointPaint.setAlpha(alpha1);
-                    canvas.drawCircle(mXAxis[i], yAxis[i], mRadius, mPointPaint);
+                    canvas.drawCircle(x, yAxis[i], mRadius, mPointPaint);
                 } else {
                     mPointPaint.setAlpha(alpha2);
-                    canvas.drawCircle(mXAxis[i], yAxis[i], mRadius, mPointPaint);
+                    canvas.drawCircle(x, yAxis[i], mRadius, mPointPaint);
                 }
                 // Nowadays
             } else {
                 mPointPaint.setAlpha(alpha2);
-                canvas.drawCircle(mXAxis[i], yAxis[i], mRadiusToday, mPointPaint);
+                canvas.drawCircle(x, yAxis[i], mRadiusToday, mPointPaint);
             }
 
             // Calligraphy
@@ -332,91 +438,163 @@ public class WeatherChartView extends View {
         switch (type) {
             case 0:
                 // Display daytime temperature
-                canvas.drawText(temp[i] + "", mXAxis[i], yAxis[i] - mRadius - mTextSpace, textPaint);
+                canvas.drawText(mTempDayText[i], getXAxis(i), yAxis[i] - mRadius - mTextSpace, textPaint);
                 break;
             case 1:
                 // Show night temperature
-                canvas.drawText(days[i] , mXAxis[i], yAxis[i] + mTextSpace + mTextSize, textPaint);
+                String label = getLabel(i);
+                if (label != null) {
+                    canvas.drawText(label, getXAxis(i), yAxis[i] + mTextSpace + mTextSize, textPaint);
+                }
                 break;
         }
     }
 
+    private String getLabel(int i) {
+        if (mLabels != null)
+            return i < mLabels.length ? mLabels[i] : null;
+        if (mDefaultLabels[i] == null) {
+            mDefaultLabels[i] = getDefaultLabel(i);
+        }
+        return mDefaultLabels[i];
+    }
+
+    /**
+     * Label of a point when none are set: month.day of the date i - 2 days
+     * from today, so the third point is today, as the chart always showed
+     */
+    private static String getDefaultLabel(int i) {
+        Calendar c = Calendar.getInstance();
+        c.add(Calendar.DAY_OF_MONTH, i - 2);
+        return (c.get(Calendar.MONTH) + 1) + "." + c.get(Calendar.DAY_OF_MONTH);
+    }
+
+    /**
+     * x-axis position of a point, in content coordinates
+     */
+    private float getXAxis(int i) {
+        return mPointSpace * (i + 0.5f);
+    }
+
     /**
      * Set height, x-axis collection
      */
     private void setHeightAndXAxis() {
         mHeight = getHeight();
-        // Control width
-        int width = getWidth();
-        // Wide per serving
-        float w = width / 12;
-        mXAxis[0] = w;
-        mXAxis[1] = w * 3;
-        mXAxis[2] = w * 5;
-        mXAxis[3] = w * 7;
-        mXAxis[4] = w * 9;
-        mXAxis[5] = w * 11;
+        // Control width, shared by the visible points
+        mPointSpace = (float) getWidth() / mVisiblePoints;
+        mDirty = true;
+        scrollTo(clampScroll(getScrollX()), 0);
+    }
+
+    private int getMaxScroll() {
+        return Math.max(0, (int) (mPointSpace * mLength) - getWidth());
+    }
+
+    private int clampScroll(int x) {
+        return Math.max(0, Math.min(x, getMaxScroll()));
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        return mGestureDetector.onTouchEvent(event) || super.onTouchEvent(event);
+    }
+
+    /**
+     * Taps on a scrollable chart are detected by the gesture detector, which
+     * calls this, so accessibility services see them as clicks.
+     */
+    @Override
+    public boolean performClick() {
+        return super.performClick();
+    }
+
+    @Override
+    public void computeScroll() {
+        if (mScroller.computeScrollOffset()) {
+            scrollTo(clampScroll(mScroller.getCurrX()), 0);
+            postInvalidateOnAnimation();
+        }
+    }
+
+    @Override
+    protected int computeHorizontalScrollRange() {
+        return Math.max(getWidth(), (int) (mPointSpace * mLength));
     }
 
     /**
-     * Set day temperature
+     * Set day temperature. The chart is laid out again on the next draw;
+     * changes made to the array afterwards need another call.
      *
      * @param tempDay Temperature array collection
      */
     public void setTempDay(int[] tempDay) {
         mTempDay = tempDay;
+        mTempDayText = new String[tempDay.length];
+        updateLength();
     }
 
     /**
-     * Set night temperature
+     * Set night temperature. The chart is laid out again on the next draw;
+     * changes made to the array afterwards need another call.
      *
      * @param tempNight Temperature array collection
      */
     public void setTempNight(int[] tempNight) {
         mTempNight = tempNight;
+        updateLength();
     }
 
-    String [] days=DateTimeHelper.get6days(true);
-}
-
-class DateTimeHelper {
-
-    public static Date getToday()
-    {
-        Date d=new Date();
-        return new Date(d.getYear(),d.getMonth(),d.getDate());
+    /**
+     * Set the labels shown under the night line, one per point
+     *
+     * @param labels Label array collection, null for the default dates
+     */
+    public void setLabels(String[] labels) {
+        mLabels = labels;
+        invalidate();
     }
 
-    public static Date add(Date d,int n)
-    {
-        Calendar c=Calendar.getInstance();
-        c.setTime(d);
-        c.add(Calendar.DAY_OF_MONTH,n);
-        return c.getTime();
-
+    /**
+     * Set the point drawn as today
+     *
+     * @param todayIndex index of the point, -1 for none
+     */
+    public void setTodayIndex(int todayIndex) {
+        mTodayIndex = todayIndex;
+        invalidate();
     }
 
-    public static Date[] get6days()
-    {
-        Date d=getToday();
-        Date [] days=new Date[6];
-        for (int i=0;i<6;i++)
-        {
-            days[i]=add(d,i-2);
-        }
-        return days;
+    /**
+     * Set how many points fit across the control
+     *
+     * @param visiblePoints Number of points
+     */
+    public void setVisiblePoints(int visiblePoints) {
+        mVisiblePoints = Math.max(1, visiblePoints);
+        setHeightAndXAxis();
+        invalidate();
     }
 
-    public static String[] get6days(boolean returnString)
-    {
-        Date d=getToday();
+    /**
+     * Scroll so the given point is the last one in view
+     *
+     * @param i index
+     */
+    public void scrollToPoint(int i) {
+        mScroller.forceFinished(true);
+        scrollTo(clampScroll((int) (mPointSpace * (i + 1)) - getWidth()), 0);
+    }
 
-        String [] days=new String[6];
-        for (int i=0;i<6;i++)
-        {
-            Date t=add(d,i-2);
-            days[i]=t.getMonth()+1+"."+t.getDate();
+    private void updateLength() {
+        mLength = Math.min(mTempDay.length, mTempNight.length);
+        mDefaultLabels = new String[mLength];
+        mDirty = true;
+        if (mYAxisDay.length < mLength) {
+            mYAxisDay = new float[mLength];
+            mYAxisNight = new float[mLength];
         }
-        return days;
+        scrollTo(clampScroll(getScrollX()), 0);
+        invalidate();
     }
 }